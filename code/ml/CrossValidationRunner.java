@@ -0,0 +1,270 @@
+package ml;
+
+import ml.classifiers.Classifier;
+import ml.data.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Trains and evaluates every fold of a cross validation at the same time.
+ *
+ * Each fold gets its own classifier from the given supplier, so the folds don't share
+ * any state.  Preprocessing is done with a PreprocessingPipeline, which writes new data
+ * sets rather than modifying the examples the folds share, and caches its results so
+ * running the same folds again (e.g. in a hyperparameter sweep) doesn't redo it.
+ */
+public class CrossValidationRunner {
+    private final ExecutorService executor;
+
+    /**
+     * Create a runner that uses the common fork/join pool.
+     */
+    public CrossValidationRunner() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a runner that runs the folds on executor.
+     * @param executor
+     */
+    public CrossValidationRunner(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Train and test a new classifier on every fold without any preprocessing.
+     * @param classifierSupplier creates the classifier for each fold (e.g. a ClassifierFactory)
+     * @param folds the cross validation to run
+     * @return the accuracies and timing of each fold
+     */
+    public Result run(Supplier<Classifier> classifierSupplier, CrossValidationSet folds) {
+        return run(classifierSupplier, folds, (PreprocessingPipeline) null);
+    }
+
+    /**
+     * Train and test a new classifier on every fold.
+     * @param classifierSupplier creates the classifier for each fold (e.g. a ClassifierFactory)
+     * @param folds the cross validation to run
+     * @param preprocessorSupplier creates the preprocessors for each fold, in the order they should be applied
+     * @return the accuracies and timing of each fold
+     */
+    public Result run(
+            Supplier<Classifier> classifierSupplier,
+            CrossValidationSet folds,
+            Supplier<List<DataPreprocessor>> preprocessorSupplier) {
+        return run(classifierSupplier, folds, new PreprocessingPipeline(preprocessorSupplier));
+    }
+
+    /**
+     * Train and test a new classifier on every fold.
+     * @param classifierSupplier creates the classifier for each fold (e.g. a ClassifierFactory)
+     * @param folds the cross validation to run
+     * @param pipeline the preprocessing to apply to each fold, or null for none
+     * @return the accuracies and timing of each fold
+     */
+    public Result run(
+            Supplier<Classifier> classifierSupplier,
+            CrossValidationSet folds,
+            PreprocessingPipeline pipeline) {
+
+        List<Callable<FoldResult>> tasks = new ArrayList<>();
+
+        for (int fold = 0; fold < folds.getNumSplits(); fold++) {
+            DataSetSplit split = folds.getValidationSet(fold);
+            int foldNum = fold;
+
+            tasks.add(() -> runFold(foldNum, classifierSupplier.get(), pipeline, split));
+        }
+
+        long start = System.nanoTime();
+        List<FoldResult> results = new ArrayList<>();
+
+        try {
+            for (Future<FoldResult> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while running cross validation", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new RuntimeException(e.getCause());
+        }
+
+        return new Result(results, System.nanoTime() - start);
+    }
+
+    /**
+     * Preprocess, train and evaluate a single fold.
+     * @param fold which fold this is
+     * @param classifier the classifier to train
+     * @param pipeline the preprocessing to apply, or null for none
+     * @param split the fold's data
+     * @return the fold's accuracies and timing
+     */
+    private static FoldResult runFold(
+            int fold,
+            Classifier classifier,
+            PreprocessingPipeline pipeline,
+            DataSetSplit split) {
+
+        // normalize data with specified preprocessors
+        if (pipeline != null) {
+            split = pipeline.apply(split);
+        }
+
+        DataSet trainData = split.getTrain();
+        DataSet testData = split.getTest();
+
+        long start = System.nanoTime();
+        classifier.train(trainData);
+        long trainNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        double trainAccuracy = accuracy(classifier, trainData);
+        double testAccuracy = accuracy(classifier, testData);
+        long testNanos = System.nanoTime() - start;
+
+        return new FoldResult(fold, trainAccuracy, testAccuracy, trainNanos, testNanos);
+    }
+
+    /**
+     * @param classifier a trained classifier
+     * @param data
+     * @return the fraction of the examples in data (by example weight) that classifier gets right
+     */
+    private static double accuracy(Classifier classifier, DataSet data) {
+        double[] predictions = classifier.classifyAll(data);
+        double correct = 0.0;
+        double total = 0.0;
+
+        for (int i = 0; i < predictions.length; i++) {
+            Example ex = data.getData().get(i);
+
+            if (predictions[i] == ex.getLabel()) {
+                correct += ex.getWeight();
+            }
+
+            total += ex.getWeight();
+        }
+
+        return correct / total;
+    }
+
+    /**
+     * The accuracies and timing for one fold.
+     */
+    public static class FoldResult {
+        private final int fold;
+        private final double trainAccuracy;
+        private final double testAccuracy;
+        private final long trainNanos;
+        private final long testNanos;
+
+        private FoldResult(int fold, double trainAccuracy, double testAccuracy, long trainNanos, long testNanos) {
+            this.fold = fold;
+            this.trainAccuracy = trainAccuracy;
+            this.testAccuracy = testAccuracy;
+            this.trainNanos = trainNanos;
+            this.testNanos = testNanos;
+        }
+
+        public int getFold() {
+            return fold;
+        }
+
+        public double getTrainAccuracy() {
+            return trainAccuracy;
+        }
+
+        public double getTestAccuracy() {
+            return testAccuracy;
+        }
+
+        /**
+         * @return how long training took in milliseconds
+         */
+        public double getTrainMillis() {
+            return trainNanos / 1e6;
+        }
+
+        /**
+         * @return how long classifying the train and test examples took in milliseconds
+         */
+        public double getTestMillis() {
+            return testNanos / 1e6;
+        }
+    }
+
+    /**
+     * The results for every fold of a cross validation.
+     */
+    public static class Result {
+        private final List<FoldResult> folds;
+        private final long elapsedNanos;
+
+        private Result(List<FoldResult> folds, long elapsedNanos) {
+            this.folds = Collections.unmodifiableList(folds);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return the result of each fold, in fold order
+         */
+        public List<FoldResult> getFolds() {
+            return folds;
+        }
+
+        public double getAverageTrainAccuracy() {
+            double sum = 0.0;
+
+            for (FoldResult fold : folds) {
+                sum += fold.getTrainAccuracy();
+            }
+
+            return sum / folds.size();
+        }
+
+        public double getAverageTestAccuracy() {
+            double sum = 0.0;
+
+            for (FoldResult fold : folds) {
+                sum += fold.getTestAccuracy();
+            }
+
+            return sum / folds.size();
+        }
+
+        /**
+         * @return the wall clock time for running all of the folds in milliseconds
+         */
+        public double getElapsedMillis() {
+            return elapsedNanos / 1e6;
+        }
+
+        /**
+         * @return the time spent training and testing summed over all of the folds in
+         * milliseconds, i.e. roughly how long running them one at a time would take
+         */
+        public double getTotalFoldMillis() {
+            double sum = 0.0;
+
+            for (FoldResult fold : folds) {
+                sum += fold.getTrainMillis() + fold.getTestMillis();
+            }
+
+            return sum;
+        }
+    }
+}
@@ -51,158 +51,104 @@ public class Experimenter {
         twoLayerNN.train(titanicSplit.getTrain(), titanicSplit.getTest());
         System.out.println();
 
+        // runs the 10 folds of each experiment concurrently
+        CrossValidationRunner runner = new CrossValidationRunner();
+
         // Q3. Impact of number of hidden nodes on network accuracy
         System.out.println("Q3. Impact of number of hidden nodes on network accuracy:");
         for (int nodeCount = 1; nodeCount <= 10; nodeCount++) {
-            // init NN with correct node count
-            TwoLayerNN nn = new TwoLayerNN(nodeCount);
-
-            double avgTrainSum = 0.0;
-            double avgTestSum = 0.0;
+            // init NN with correct node count for each fold
+            int hiddenNodes = nodeCount;
+            CrossValidationRunner.Result result = runner.run(() -> new TwoLayerNN(hiddenNodes), titanicXV);
 
-            // loop through folds and print training stats
+            // print training stats for each fold
             System.out.printf("Node count: %d\n", nodeCount);
             System.out.println("fold,trainAccuracy,testAccuracy");
-            for (int fold = 0; fold < 10; fold++) {
-                // get data fold
-                DataSetSplit titanicFold = titanicXV.getValidationSet(fold);
-
-                // train and save accuracies
-                double[] accuracies = trainTestClassifierWithTestAccuracy(1, nn, new ArrayList<>(), titanicFold);
-
-                // tally avg sums and print
-                avgTrainSum += accuracies[0];
-                avgTestSum += accuracies[1];
-                System.out.printf("%d,%f,%f\n", fold, accuracies[0], accuracies[1]);
+            for (CrossValidationRunner.FoldResult fold : result.getFolds()) {
+                System.out.printf("%d,%f,%f\n", fold.getFold(), fold.getTrainAccuracy(), fold.getTestAccuracy());
             }
 
-            System.out.printf("avg,%f,%f\n\n", avgTrainSum / 10, avgTestSum / 10);
+            System.out.printf("avg,%f,%f\n\n", result.getAverageTrainAccuracy(), result.getAverageTestAccuracy());
         }
 
         // Q4. Find the ideal NN
         System.out.println("Q4. Find the ideal NN:");
 
-        // init network; 7 hidden nodes from experiment 3
-        TwoLayerNN idealNN = new TwoLayerNN(7);
-
+        // 7 hidden nodes from experiment 3
         // eta 0 - 0.5; step of 0.01
         System.out.println("eta,avgTrainAccuracy,avgTestAccuracy");
         for (double eta = 0.0; eta <= 0.5; eta += 0.01) {
-            // set eta
-            idealNN.setEta(eta);
-
-            // init avg train/test sums
-            double avgTrainSum = 0.0;
-            double avgTestSum = 0.0;
-
-            for (int fold = 0; fold < 10; fold++) {
-                // get data fold
-                DataSetSplit titanicFold = titanicXV.getValidationSet(fold);
-
-                // train and save accuracies
-                double[] accuracies = trainTestClassifierWithTestAccuracy(1, idealNN, new ArrayList<>(), titanicFold);
-
-                // tally avg sums
-                avgTrainSum += accuracies[0];
-                avgTestSum += accuracies[1];
-            }
-
-            System.out.printf("%f,%f,%f\n", eta, avgTrainSum / 10, avgTestSum / 10);
+            double currentEta = eta;
+            CrossValidationRunner.Result result = runner.run(() -> {
+                TwoLayerNN nn = new TwoLayerNN(7);
+                nn.setEta(currentEta);
+                return nn;
+            }, titanicXV);
+
+            System.out.printf("%f,%f,%f\n", eta, result.getAverageTrainAccuracy(), result.getAverageTestAccuracy());
         }
         System.out.println();
 
-        // iterations 1 - 200; step of 1
-        idealNN.setEta(0.1); // reset to default
+        // iterations 1 - 200; step of 1 (eta at the default of 0.1)
         System.out.println("iterations,avgTrainAccuracy,avgTestAccuracy");
         for (int i = 1; i <= 200; i++) {
-            // set eta
-            idealNN.setIterations(i);
-
-            // init avg train/test sums
-            double avgTrainSum = 0.0;
-            double avgTestSum = 0.0;
-
-            for (int fold = 0; fold < 10; fold++) {
-                // get data fold
-                DataSetSplit titanicFold = titanicXV.getValidationSet(fold);
-
-                // train and save accuracies
-                double[] accuracies = trainTestClassifierWithTestAccuracy(1, idealNN, new ArrayList<>(), titanicFold);
-
-                // tally avg sums
-                avgTrainSum += accuracies[0];
-                avgTestSum += accuracies[1];
-            }
-
-            System.out.printf("%d,%f,%f\n", i, avgTrainSum / 10, avgTestSum / 10);
+            int iterations = i;
+            CrossValidationRunner.Result result = runner.run(() -> {
+                TwoLayerNN nn = new TwoLayerNN(7);
+                nn.setEta(0.1);
+                nn.setIterations(iterations);
+                return nn;
+            }, titanicXV);
+
+            System.out.printf("%d,%f,%f\n", i, result.getAverageTrainAccuracy(), result.getAverageTestAccuracy());
         }
         System.out.println();
 
         // print 10-XV accuracies of ideal NN
         // set to found ideal values
-        idealNN.setEta(0.39);
-        idealNN.setIterations(144);
-
-        // init avg train/test sums
-        double avgTrainSum = 0.0;
-        double avgTestSum = 0.0;
+        CrossValidationRunner.Result idealResult = runner.run(() -> {
+            TwoLayerNN nn = new TwoLayerNN(7);
+            nn.setEta(0.39);
+            nn.setIterations(144);
+            return nn;
+        }, titanicXV);
 
         System.out.println("fold,avgTrainAccuracy,avgTestAccuracy");
-        for (int fold = 0; fold < 10; fold++) {
-            // get data fold
-            DataSetSplit titanicFold = titanicXV.getValidationSet(fold);
-
-            // train and save accuracies
-            double[] accuracies = trainTestClassifierWithTestAccuracy(1, idealNN, new ArrayList<>(), titanicFold);
-
-            // tally avg sums
-            avgTrainSum += accuracies[0];
-            avgTestSum += accuracies[1];
-            System.out.printf("%d,%f,%f\n", fold, accuracies[0], accuracies[1]);
+        for (CrossValidationRunner.FoldResult fold : idealResult.getFolds()) {
+            System.out.printf("%d,%f,%f\n", fold.getFold(), fold.getTrainAccuracy(), fold.getTestAccuracy());
         }
 
-        System.out.printf("avg,%f,%f\n", avgTrainSum / 10, avgTestSum / 10);
+        System.out.printf("avg,%f,%f\n", idealResult.getAverageTrainAccuracy(), idealResult.getAverageTestAccuracy());
 
         // Q5. Evaluate tanh vs. sigmoid performance (7 hidden nodes)
         System.out.println("Q5. Evaluate tanh vs. sigmoid performance (7 hidden nodes):");
 
-        // init networks with default eta/iterations
-        TwoLayerNN tanhNetwork = new TwoLayerNN(7);
-        tanhNetwork.setTanhActivation();
-        TwoLayerNN sigmoidNetwork = new TwoLayerNN(7);
-        sigmoidNetwork.setSigmoidActivation();
-
-        // init avg train/test sums
-        double avgTanhTrainSum = 0.0;
-        double avgTanhTestSum = 0.0;
-        double avgSigmoidTrainSum = 0.0;
-        double avgSigmoidTestSum = 0.0;
+        // init networks with default eta/iterations (sigmoid uses the preprocessed sigmoid data)
+        CrossValidationRunner.Result tanhResult = runner.run(() -> {
+            TwoLayerNN nn = new TwoLayerNN(7);
+            nn.setTanhActivation();
+            return nn;
+        }, titanicXV);
+        CrossValidationRunner.Result sigmoidResult = runner.run(() -> {
+            TwoLayerNN nn = new TwoLayerNN(7);
+            nn.setSigmoidActivation();
+            return nn;
+        }, titanicSigmoidXV);
 
         System.out.println("fold,avgTanhTrainAccuracy,avgTanhTestAccuracy,avgSigmoidTrainAccuracy,avgSigmoidTestAccuracy");
         for (int fold = 0; fold < 10; fold++) {
-            // get data folds (preprocessed sigmoid data)
-            DataSetSplit titanicTanhFold = titanicXV.getValidationSet(fold);
-            DataSetSplit titanicSigmoidFold = titanicSigmoidXV.getValidationSet(fold);
-
-            // train and save accuracies
-            double[] tanhAccuracies = trainTestClassifierWithTestAccuracy(1, tanhNetwork, new ArrayList<>(), titanicTanhFold);
-            double[] sigmoidAccuracies = trainTestClassifierWithTestAccuracy(1, sigmoidNetwork, new ArrayList<>(), titanicSigmoidFold);
-
-            // tally avg sums
-            avgTanhTrainSum += tanhAccuracies[0];
-            avgTanhTestSum += tanhAccuracies[1];
-            avgSigmoidTrainSum += sigmoidAccuracies[0];
-            avgSigmoidTestSum += sigmoidAccuracies[1];
+            CrossValidationRunner.FoldResult tanhFold = tanhResult.getFolds().get(fold);
+            CrossValidationRunner.FoldResult sigmoidFold = sigmoidResult.getFolds().get(fold);
 
             // print fold accuracies
             System.out.printf("%d,%f,%f,%f,%f\n", fold,
-                    tanhAccuracies[0], tanhAccuracies[1],
-                    sigmoidAccuracies[0], sigmoidAccuracies[1]);
+                    tanhFold.getTrainAccuracy(), tanhFold.getTestAccuracy(),
+                    sigmoidFold.getTrainAccuracy(), sigmoidFold.getTestAccuracy());
         }
 
         System.out.printf("avg,%f,%f,%f,%f\n",
-                avgTanhTrainSum / 10, avgTanhTestSum / 10,
-                avgSigmoidTrainSum / 10, avgSigmoidTestSum / 10);
+                tanhResult.getAverageTrainAccuracy(), tanhResult.getAverageTestAccuracy(),
+                sigmoidResult.getAverageTrainAccuracy(), sigmoidResult.getAverageTestAccuracy());
     }
 
     /**
@@ -210,7 +156,10 @@ public class Experimenter {
      * Data preprocessors can optionally be provided.
      * @param iterationCount number of iterations to average performance over
      * @param classifier which classifier to use
-     * @param preprocessors a list of preprocessors in order of their intended use
+     * @param preprocessors a list of preprocessors in order of their intended use; they're fit
+     * to dataSetSplit once for all of the iterations, so they shouldn't be shared with
+     * another call running at the same time (pass a PreprocessingPipeline to reuse the
+     * preprocessed split across calls)
      * @param dataSetSplit the data set to use
      * @return a double representing the accuracy of the test
      */
@@ -219,42 +168,58 @@ public class Experimenter {
             Classifier classifier,
             List<DataPreprocessor> preprocessors,
             DataSetSplit dataSetSplit) {
+        return trainTestClassifier(iterationCount, classifier, new PreprocessingPipeline(() -> preprocessors), dataSetSplit);
+    }
 
-        // init accuracy stats
-        int correctGuesses = 0;
-        int totalGuesses = 0;
+    /**
+     * Same as trainTestClassifier, but with a pipeline the caller owns, so that sweeps can
+     * reuse its preprocessed splits explicitly.
+     *
+     * @param iterationCount number of iterations to average performance over
+     * @param classifier which classifier to use
+     * @param pipeline preprocesses the split; it leaves dataSetSplit unchanged
+     * @param dataSetSplit the data set to use
+     * @return a double representing the accuracy of the test
+     */
+    public static double trainTestClassifier(
+            int iterationCount,
+            Classifier classifier,
+            PreprocessingPipeline pipeline,
+            DataSetSplit dataSetSplit) {
+
+        // init accuracy stats; each guess counts by the example's weight
+        double correctGuesses = 0;
+        double totalGuesses = 0;
 
         // evaluate trained classifier
         for (int i = 1; i <= iterationCount; i++) {
             // split data
-            DataSet trainData = dataSetSplit.getTrain();
-            DataSet testData = dataSetSplit.getTest();
-
-            // normalize data with specified preprocessors
-            for (DataPreprocessor preprocessor : preprocessors) {
-                preprocessor.preprocessTrain(trainData);
-                preprocessor.preprocessTest(testData);
-            }
+            DataSetSplit processedSplit = pipeline.apply(dataSetSplit);
+            DataSet trainData = processedSplit.getTrain();
+            DataSet testData = processedSplit.getTest();
 
             // train classifier
             classifier.train(trainData);
 
-            for (Example ex : testData.getData()) {
-                // classify
-                double classification = classifier.classify(ex);
+            // classify all of the test examples together
+            double[] classifications = classifier.classifyAll(testData);
+
+            for (int j = 0; j < classifications.length; j++) {
+                Example ex = testData.getData().get(j);
+                double classification = classifications[j];
 
                 // if correct, add to correct guesses
                 if (classification == ex.getLabel()){
-                    correctGuesses++;
+                    correctGuesses += ex.getWeight();
                 }
 
                 // increment total guesses
-                totalGuesses++;
+                totalGuesses += ex.getWeight();
             }
         }
 
         // return final test accuracy
-        return (double)correctGuesses / (double)totalGuesses;
+        return correctGuesses / totalGuesses;
     }
 
     /**
@@ -262,7 +227,10 @@ public class Experimenter {
      *
      * @param iterationCount number of iterations to average performance over
      * @param classifier which classifier to use
-     * @param preprocessors a list of preprocessors in order of their intended use
+     * @param preprocessors a list of preprocessors in order of their intended use; they're fit
+     * to dataSetSplit once for all of the iterations, so they shouldn't be shared with
+     * another call running at the same time (pass a PreprocessingPipeline to reuse the
+     * preprocessed split across calls)
      * @param dataSetSplit the data set to use
      *
      * @return an ArrayList where the item at index 0 is the training accuracy and the item
@@ -273,60 +241,78 @@ public class Experimenter {
             Classifier classifier,
             List<DataPreprocessor> preprocessors,
             DataSetSplit dataSetSplit) {
+        return trainTestClassifierWithTestAccuracy(iterationCount, classifier, new PreprocessingPipeline(() -> preprocessors), dataSetSplit);
+    }
 
-        // init accuracy stats
-        int correctTrainGuesses = 0;
-        int totalTrainGuesses = 0;
-        int correctTestGuesses = 0;
-        int totalTestGuesses = 0;
+    /**
+     * Same as trainTestClassifierWithTestAccuracy, but with a pipeline the caller owns.
+     *
+     * @param iterationCount number of iterations to average performance over
+     * @param classifier which classifier to use
+     * @param pipeline preprocesses the split; it leaves dataSetSplit unchanged
+     * @param dataSetSplit the data set to use
+     *
+     * @return an ArrayList where the item at index 0 is the training accuracy and the item
+     * at index 1 is the testing accuracy
+     */
+    public static double[] trainTestClassifierWithTestAccuracy(
+            int iterationCount,
+            Classifier classifier,
+            PreprocessingPipeline pipeline,
+            DataSetSplit dataSetSplit) {
+
+        // init accuracy stats; each guess counts by the example's weight
+        double correctTrainGuesses = 0;
+        double totalTrainGuesses = 0;
+        double correctTestGuesses = 0;
+        double totalTestGuesses = 0;
 
         // evaluate trained classifier
         for (int i = 1; i <= iterationCount; i++) {
             // split data
-            DataSet trainData = dataSetSplit.getTrain();
-            DataSet testData = dataSetSplit.getTest();
-
-            // normalize data with specified preprocessors
-            for (DataPreprocessor preprocessor : preprocessors) {
-                preprocessor.preprocessTrain(trainData);
-                preprocessor.preprocessTest(testData);
-            }
+            DataSetSplit processedSplit = pipeline.apply(dataSetSplit);
+            DataSet trainData = processedSplit.getTrain();
+            DataSet testData = processedSplit.getTest();
 
             // train classifier
             classifier.train(trainData);
 
             // evaluate model accuracy over training data
-            for (Example trainEx : trainData.getData()) {
-                // classify
-                double classification = classifier.classify(trainEx);
+            double[] trainClassifications = classifier.classifyAll(trainData);
+
+            for (int j = 0; j < trainClassifications.length; j++) {
+                Example trainEx = trainData.getData().get(j);
+                double classification = trainClassifications[j];
 
                 // if correct, add to correct training guesses
                 if (classification == trainEx.getLabel()){
-                    correctTrainGuesses++;
+                    correctTrainGuesses += trainEx.getWeight();
                 }
 
                 // increment total training guesses
-                totalTrainGuesses++;
+                totalTrainGuesses += trainEx.getWeight();
             }
 
             // evaluate model accuracy over testing data
-            for (Example testEx : testData.getData()) {
-                // classify
-                double classification = classifier.classify(testEx);
+            double[] testClassifications = classifier.classifyAll(testData);
+
+            for (int j = 0; j < testClassifications.length; j++) {
+                Example testEx = testData.getData().get(j);
+                double classification = testClassifications[j];
 
                 // if correct, add to correct testing guesses
                 if (classification == testEx.getLabel()){
-                    correctTestGuesses++;
+                    correctTestGuesses += testEx.getWeight();
                 }
 
                 // increment total testing guesses
-                totalTestGuesses++;
+                totalTestGuesses += testEx.getWeight();
             }
         }
 
         // calc and return train/test accuracy
-        double trainAccuracy = (double)correctTrainGuesses / (double)totalTrainGuesses;
-        double testAccuracy = (double)correctTestGuesses / (double)totalTestGuesses;
+        double trainAccuracy = correctTrainGuesses / totalTrainGuesses;
+        double testAccuracy = correctTestGuesses / totalTestGuesses;
 
         double[] accuracies = new double[2];
         accuracies[0] = trainAccuracy;
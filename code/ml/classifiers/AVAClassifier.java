@@ -2,6 +2,7 @@ package ml.classifiers;
 
 import ml.data.DataSet;
 import ml.data.Example;
+import ml.data.LabelDictionary;
 
 import java.util.*;
 
@@ -12,9 +13,9 @@ import java.util.*;
  */
 public class AVAClassifier implements Classifier{
     private final ClassifierFactory factory;
-    private final List<Double> labels;
-    // in the format (posLabelIndex, negLabelIndex) --> classifier
-    private final Map<List<Integer>, Classifier> labelIndicesClassifierMap;
+    private LabelDictionary labels;
+    // in the format [posClassId][negClassId] --> classifier, for posClassId < negClassId
+    private Classifier[][] labelIndicesClassifiers;
 
     /**
      * Initialize the AVA classifier. The classifier relies on the passed
@@ -24,9 +25,8 @@ public class AVAClassifier implements Classifier{
      * @param factory
      */
     public AVAClassifier (ClassifierFactory factory) {
-        this.labels = new ArrayList<>();
         this.factory = factory;
-        this.labelIndicesClassifierMap = new HashMap<>();
+        this.labelIndicesClassifiers = new Classifier[0][0];
     }
 
     /**
@@ -37,34 +37,26 @@ public class AVAClassifier implements Classifier{
     @Override
     public void train(DataSet data) {
 
-        // clear old labels and map
-        this.labels.clear();
-        this.labelIndicesClassifierMap.clear();
-
-        // get label count & list representation
-        this.labels.addAll(data.getLabels());
+        // replace old labels and classifiers
+        this.labels = data.getLabelDictionary();
         int labelCount = this.labels.size();
+        this.labelIndicesClassifiers = new Classifier[labelCount][labelCount];
 
         // loop through examples
         for (int i = 0; i < labelCount; i++) {
             for (int j = i + 1; j < labelCount; j++) {
 
-                // isolate pos and neg values
-                double posLabel = this.labels.get(i);
-                double negLabel = this.labels.get(j);
-                final List<Integer> currLabelIndices = List.of(i, j);
-
                 // init classifier
                 Classifier currClassifier = this.factory.getClassifier();
 
-                // build trimmed binary data set
-                DataSet trimmedBinaryDataSet = dataSetBinaryTrimmedCopy(data, posLabel, negLabel);
+                // build trimmed binary data set; class i is pos and class j neg
+                DataSet trimmedBinaryDataSet = dataSetBinaryTrimmedCopy(data, i, j);
 
                 // train classifier based on trimmed data set
                 currClassifier.train(trimmedBinaryDataSet);
 
-                // put labels and classifier into map
-                this.labelIndicesClassifierMap.put(currLabelIndices, currClassifier);
+                // put classifier into its (pos, neg) slot
+                this.labelIndicesClassifiers[i][j] = currClassifier;
             }
         }
     }
@@ -79,28 +71,26 @@ public class AVAClassifier implements Classifier{
     public double classify(Example example) {
 
         // init label count
-        int labelCount = this.labels.size();
+        int labelCount = this.labelIndicesClassifiers.length;
 
         // intialize score array with all zeros
         double[] scoreArray = new double[labelCount];
         Arrays.fill(scoreArray, 0.0);
 
-        // loop through label indices --> classifier map
-        for (List<Integer> labelIndices : this.labelIndicesClassifierMap.keySet()) {
-
-            // get indicies and classifier
-            int i = labelIndices.get(0);
-            int j = labelIndices.get(1);
-            Classifier currClassifier = this.labelIndicesClassifierMap.get(labelIndices);
+        // loop through (pos, neg) class id pairs
+        for (int i = 0; i < labelCount; i++) {
+            for (int j = i + 1; j < labelCount; j++) {
+                Classifier currClassifier = this.labelIndicesClassifiers[i][j];
 
-            // get prediction and confidence and mult. them together
-            double prediction = currClassifier.classify(example);
-            double confidence = currClassifier.confidence(example);
-            double score = prediction * confidence;
+                // get prediction and confidence and mult. them together
+                double prediction = currClassifier.classify(example);
+                double confidence = currClassifier.confidence(example);
+                double score = prediction * confidence;
 
-            // increment scores
-            scoreArray[i] += score;
-            scoreArray[j] -= score;
+                // increment scores
+                scoreArray[i] += score;
+                scoreArray[j] -= score;
+            }
         }
 
         // init max index/score
@@ -116,7 +106,7 @@ public class AVAClassifier implements Classifier{
             }
         }
 
-        return this.labels.get(maxIndex);
+        return this.labels.getLabel(maxIndex);
     }
 
     /**
@@ -130,32 +120,34 @@ public class AVAClassifier implements Classifier{
     }
 
     /**
-     * A helper function that takes a data set, a label to set as 1.0 (pos), and a
-     * label to set as -1.0 (neg) and returns a trimmed copy of the input data set that
+     * A helper function that takes a data set, a class to set as 1.0 (pos), and a
+     * class to set as -1.0 (neg) and returns a trimmed copy of the input data set that
      * contains only these two classes
      *
      * @param dataSet
-     * @param posLabel
-     * @param negLabel
+     * @param posClassId
+     * @param negClassId
      * @return the trimmed copy of the data set with classes 1.0 and -1.0
      */
-    private static DataSet dataSetBinaryTrimmedCopy(DataSet dataSet, double posLabel, double negLabel) {
+    private static DataSet dataSetBinaryTrimmedCopy(DataSet dataSet, int posClassId, int negClassId) {
 
         // make new dataset based on provided dataset's feature map
         DataSet binaryDataSet = new DataSet(dataSet.getFeatureMap());
+        int[] classIds = dataSet.getEncodedLabels();
 
         // add modified examples based on original data set's examples
-        for (Example e : dataSet.getData()) {
+        for (int i = 0; i < classIds.length; i++) {
 
-            // get label
-            double label = e.getLabel();
+            // get class
+            int classId = classIds[i];
 
-            // add to new data set only if one of our desired labels
-            if (label == posLabel || label == negLabel) {
+            // add to new data set only if one of our desired classes
+            if (classId == posClassId || classId == negClassId) {
 
-                // transition to binary example based on provided label; add to data set
-                double newLabel = label == posLabel ? 1.0 : -1.0;
-                binaryDataSet.addData(new Example(e){{setLabel(newLabel);}});
+                // transition to binary example based on provided class; add to data set
+                Example binaryExample = new Example(dataSet.getData().get(i));
+                binaryExample.setLabel(classId == posClassId ? 1.0 : -1.0);
+                binaryDataSet.addData(binaryExample);
             }
         }
 
@@ -2,8 +2,6 @@ package ml.classifiers;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Set;
 
 import ml.data.DataSet;
 import ml.data.Example;
@@ -18,15 +16,16 @@ import ml.data.Example;
 public class AveragePerceptronClassifier extends PerceptronClassifier {
 	
 	public void train(DataSet data) {
-		initializeWeights(data.getAllFeatureIndices());
+		initializeWeights(data.getNumFeatures());
 		
 		ArrayList<Example> training = (ArrayList<Example>)data.getData().clone();
 
-		int total = 0;
-		int lastUpdate = 1;
+		// how long (in total example weight) training and the current weights have lasted
+		double total = 0;
+		double lastUpdate = 1;
 		
 		// initialize the weights
-		HashMap<Integer, Double> sumWeights = getZeroWeights(weights.keySet());
+		double[] sumWeights = getZeroWeights(weights.length);
 		double sumB = 0;
 		
 		for( int it = 0; it < iterations; it++ ){
@@ -34,20 +33,21 @@ public class AveragePerceptronClassifier extends PerceptronClassifier {
 			
 			for( Example e: training ){
 				if( getPrediction(e) != e.getLabel() ){
-					double label = e.getLabel();
+					// a weighted example makes a proportionally larger update
+					double label = e.getLabel()*e.getWeight();
 
-					// update the weights
-					for( Integer featureIndex: weights.keySet() ){
-						double featureValue = e.getFeature(featureIndex);
-						double oldSumWeight = sumWeights.get(featureIndex);
-						double oldWeight = weights.get(featureIndex);
+					// update the aggregate weights
+					for( int featureIndex = 0; featureIndex < weights.length; featureIndex++ ){
+						sumWeights[featureIndex] += lastUpdate*weights[featureIndex];
+					}
 
-						// update the aggregate weights
-						sumWeights.put(featureIndex, oldSumWeight + lastUpdate*oldWeight);
+					// update the basic weights (only the non-zero features change)
+					for( int i = 0; i < e.getNumFeatures(); i++ ){
+						int featureIndex = e.getFeatureIndexAt(i);
 
-						
-						// update the basic weights
-						weights.put(featureIndex, oldWeight + featureValue*label);						
+						if( featureIndex < weights.length ){
+							weights[featureIndex] += e.getFeatureValueAt(i)*label;
+						}
 					}
 
 					// update sumB
@@ -59,14 +59,14 @@ public class AveragePerceptronClassifier extends PerceptronClassifier {
 					lastUpdate = 0;
 				}
 				
-				total++;
-				lastUpdate++;
+				total += e.getWeight();
+				lastUpdate += e.getWeight();
 			}
 		}
 		
 		// normalize the weights and save back into the weights vector
-		for( Integer featureIndex: sumWeights.keySet() ){
-			weights.put(featureIndex, sumWeights.get(featureIndex)/total);
+		for( int featureIndex = 0; featureIndex < weights.length; featureIndex++ ){
+			weights[featureIndex] = sumWeights[featureIndex]/total;
 		}
 		
 		b = sumB/total;
@@ -25,5 +25,23 @@ public interface Classifier {
 	 */
 	public double classify(Example example);
 	
+	/**
+	 * Classify every example in data.  Should only be called *after* train has been called.
+	 * Classifiers that can classify many examples faster together than one at a time
+	 * override this.
+	 * 
+	 * @param data
+	 * @return the predicted label of each example, in the order of data.getData()
+	 */
+	public default double[] classifyAll(DataSet data){
+		double[] predictions = new double[data.getData().size()];
+		
+		for( int i = 0; i < predictions.length; i++ ){
+			predictions[i] = classify(data.getData().get(i));
+		}
+		
+		return predictions;
+	}
+	
 	public double confidence(Example example);
 }
@@ -1,14 +1,18 @@
 package ml.classifiers;
 
+import java.util.function.Supplier;
+
 import ml.classifiers.old.DecisionTreeClassifierOld;
 
 /**
- * A class for generating classifiers of a specific type.
+ * A class for generating classifiers of a specific type.  Since it's a
+ * Supplier, a factory can be handed to anything that needs fresh classifiers,
+ * e.g. CrossValidationRunner.
  * 
  * @author dkauchak
  *
  */
-public class ClassifierFactory {
+public class ClassifierFactory implements Supplier<Classifier> {
 	// constants to use for picking which classifier this factory generates
 	public static final int DECISION_TREE = 0;
 	public static final int PERCEPTRON = 1;
@@ -74,4 +78,14 @@ public class ClassifierFactory {
 			throw new RuntimeException("Classifier type not found: " + classifierType);
 		}
 	}
+	
+	/**
+	 * Same as getClassifier.
+	 * 
+	 * @return a new classifier
+	 */
+	@Override
+	public Classifier get(){
+		return getClassifier();
+	}
 }
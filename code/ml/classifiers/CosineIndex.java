@@ -0,0 +1,196 @@
+package ml.classifiers;
+
+import ml.data.Example;
+
+import java.util.List;
+
+/**
+ * An inverted index over sparse examples for exact nearest neighbor search by cosine
+ * similarity.
+ *
+ * For each feature, the index keeps the examples that have it (its posting list) along
+ * with their value for it divided by the example's norm. A query then only walks the
+ * posting lists of its own non-zero features, accumulating the dot product with every
+ * example it shares a feature with, so the cost scales with how much the query overlaps
+ * the training data rather than with the number of features.
+ *
+ * Neighbors are ranked by cosine distance, 1 - cosine similarity. Examples that don't
+ * share any features with the query (or have no features at all) are at distance 1.
+ */
+class CosineIndex {
+    private final int numExamples;
+    private final int numFeatures;
+
+    // posting lists in CSR form: feature f's postings are [postingStarts[f], postingStarts[f+1])
+    private final int[] postingStarts;
+    private final int[] postingExamples;
+    private final double[] postingValues; // value / norm of the example
+
+    /**
+     * Build the index.
+     *
+     * @param examples
+     * @param numFeatures features at or beyond this index are ignored
+     */
+    CosineIndex(List<Example> examples, int numFeatures) {
+        this.numExamples = examples.size();
+        this.numFeatures = numFeatures;
+        this.postingStarts = new int[numFeatures + 1];
+
+        // count the postings for each feature
+        for (Example e : examples) {
+            for (int pos = 0; pos < e.getNumFeatures(); pos++) {
+                int featureIndex = e.getFeatureIndexAt(pos);
+
+                if (featureIndex < numFeatures && e.getFeatureValueAt(pos) != 0.0) {
+                    this.postingStarts[featureIndex + 1]++;
+                }
+            }
+        }
+
+        for (int f = 0; f < numFeatures; f++) {
+            this.postingStarts[f + 1] += this.postingStarts[f];
+        }
+
+        this.postingExamples = new int[this.postingStarts[numFeatures]];
+        this.postingValues = new double[this.postingStarts[numFeatures]];
+
+        // fill them in; examples are added in order so every posting list is sorted
+        int[] next = new int[numFeatures];
+        System.arraycopy(this.postingStarts, 0, next, 0, numFeatures);
+
+        for (int i = 0; i < this.numExamples; i++) {
+            Example e = examples.get(i);
+            double norm = norm(e);
+
+            for (int pos = 0; pos < e.getNumFeatures(); pos++) {
+                int featureIndex = e.getFeatureIndexAt(pos);
+                double value = e.getFeatureValueAt(pos);
+
+                if (featureIndex < numFeatures && value != 0.0) {
+                    int posting = next[featureIndex]++;
+                    this.postingExamples[posting] = i;
+                    this.postingValues[posting] = value / norm;
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the K nearest examples to query, where K is the size of neighbors.
+     *
+     * @param query
+     * @param neighbors where to put the nearest examples; offered (cosine distance, index)
+     * @param scores scratch space with an entry per example, all zeros
+     * @param isCandidate scratch space with an entry per example, all false
+     * @param candidates scratch space with an entry per example
+     */
+    void search(Example query, NeighborHeap neighbors, double[] scores, boolean[] isCandidate, int[] candidates) {
+        double queryNorm = norm(query);
+        int numCandidates = 0;
+
+        // accumulate the cosine similarity of every example that shares a feature
+        if (queryNorm > 0.0) {
+            for (int pos = 0; pos < query.getNumFeatures(); pos++) {
+                int featureIndex = query.getFeatureIndexAt(pos);
+
+                if (featureIndex >= this.numFeatures) {
+                    continue;
+                }
+
+                double value = query.getFeatureValueAt(pos) / queryNorm;
+
+                for (int posting = this.postingStarts[featureIndex]; posting < this.postingStarts[featureIndex + 1]; posting++) {
+                    int example = this.postingExamples[posting];
+
+                    if (!isCandidate[example]) {
+                        isCandidate[example] = true;
+                        candidates[numCandidates++] = example;
+                    }
+
+                    scores[example] += value * this.postingValues[posting];
+                }
+            }
+        }
+
+        for (int c = 0; c < numCandidates; c++) {
+            neighbors.offer(1.0 - scores[candidates[c]], candidates[c]);
+        }
+
+        // the rest of the examples are all at distance 1, so only the first few that aren't
+        // candidates can still make it in
+        for (int i = 0; i < this.numExamples; i++) {
+            if (neighbors.isFull() && (neighbors.maxDistance() < 1.0
+                    || (neighbors.maxDistance() == 1.0 && neighbors.maxIndex() < i))) {
+                break;
+            }
+
+            if (!isCandidate[i]) {
+                neighbors.offer(1.0, i);
+            }
+        }
+
+        // reset the scratch space
+        for (int c = 0; c < numCandidates; c++) {
+            scores[candidates[c]] = 0.0;
+            isCandidate[candidates[c]] = false;
+        }
+    }
+
+    /**
+     * The cosine distance from query to example, added up the same way search does it,
+     * so it compares exactly with the distances search finds.
+     *
+     * @param query
+     * @param example
+     * @return 1 - the cosine similarity of query and example (1 if either is all zeros)
+     */
+    double distance(Example query, Example example) {
+        double queryNorm = norm(query);
+        double norm = norm(example);
+        double similarity = 0.0;
+
+        if (queryNorm > 0.0 && norm > 0.0) {
+            // merge the stored features in the query's order, the order search adds them in
+            int pos2 = 0;
+
+            for (int pos1 = 0; pos1 < query.getNumFeatures(); pos1++) {
+                int featureIndex = query.getFeatureIndexAt(pos1);
+
+                if (featureIndex >= this.numFeatures) {
+                    continue;
+                }
+
+                while (pos2 < example.getNumFeatures() && example.getFeatureIndexAt(pos2) < featureIndex) {
+                    pos2++;
+                }
+
+                if (pos2 < example.getNumFeatures() && example.getFeatureIndexAt(pos2) == featureIndex
+                        && example.getFeatureValueAt(pos2) != 0.0) {
+                    similarity += query.getFeatureValueAt(pos1) / queryNorm * (example.getFeatureValueAt(pos2) / norm);
+                }
+            }
+        }
+
+        return 1.0 - similarity;
+    }
+
+    /**
+     * @return the number of examples in the index
+     */
+    int size() {
+        return this.numExamples;
+    }
+
+    private double norm(Example e) {
+        double sum = 0.0;
+
+        for (int pos = 0; pos < e.getNumFeatures(); pos++) {
+            if (e.getFeatureIndexAt(pos) < this.numFeatures) {
+                sum += e.getFeatureValueAt(pos) * e.getFeatureValueAt(pos);
+            }
+        }
+
+        return Math.sqrt(sum);
+    }
+}
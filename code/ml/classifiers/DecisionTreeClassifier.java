@@ -7,7 +7,7 @@ import java.util.Set;
 
 import ml.data.DataSet;
 import ml.data.Example;
-import ml.utils.HashMapCounter;
+import ml.data.LabelDictionary;
 
 /**
  * Decision tree classifier that supports multiclass classification.
@@ -22,6 +22,7 @@ public class DecisionTreeClassifier implements Classifier{
 	//private DataSet allData;
 	private HashMap<Integer,String> featureMap;
 	private Set<Integer> featureIndices;
+	private LabelDictionary labels;
 	private DecisionTreeNode decisionTree;
 	private int depthMax = Integer.MAX_VALUE;
 	
@@ -32,6 +33,7 @@ public class DecisionTreeClassifier implements Classifier{
 		
 		featureMap = data.getFeatureMap();
 		featureIndices = data.getAllFeatureIndices();
+		labels = data.getLabelDictionary();
 		decisionTree = buildTree(data.getData(), new HashSet<Integer>(), depthMax);
 	}
 	
@@ -58,7 +60,7 @@ public class DecisionTreeClassifier implements Classifier{
 		// base cases:
 		// 1. they're all the same label
 		// 2. we're out of features to examine
-		if( majority.majorityCount == currentData.size() ||
+		if( majority.majorityWeight == majority.totalWeight ||
 			usedFeatures.size() == featureIndices.size() ||
 			depthLimit == 0){
 			return new DecisionTreeNode(majority.majorityLabel, majority.confidence);
@@ -123,7 +125,7 @@ public class DecisionTreeClassifier implements Classifier{
 	}
 	
 	/**
-	 * Get the average training error on this data set if we split on featureIndex
+	 * Get the average (weighted) training error on this data set if we split on featureIndex
 	 * 
 	 * @param data the current data
 	 * @param featureIndex the feature we're considering splitting on
@@ -132,10 +134,10 @@ public class DecisionTreeClassifier implements Classifier{
 	private double averageTrainingError(ArrayList<Example> data, int featureIndex){		
 		ArrayList<Example>[] splits = splitData(data, featureIndex);
 		
-		int leftCount = splits[0].size() > 0 ? getMajorityLabel(splits[0]).majorityCount : 0;
-		int rightCount = splits[1].size() > 0 ? getMajorityLabel(splits[1]).majorityCount : 0;
+		DataMajority left = getMajorityLabel(splits[0]);
+		DataMajority right = getMajorityLabel(splits[1]);
 		
-		double accuracy = (leftCount+rightCount)/(double)data.size();
+		double accuracy = (left.majorityWeight+right.majorityWeight)/(left.totalWeight+right.totalWeight);
 		return 1-accuracy;
 	}
 	
@@ -170,29 +172,31 @@ public class DecisionTreeClassifier implements Classifier{
 	}
 	
 	/**
-	 * given the data, calculate the majority label and how many times it occurs in the data
+	 * given the data, calculate the majority label and how much of the data (by example
+	 * weight) has it.  Ties go to the smallest label.
 	 * 
 	 * @param data
 	 * @return majority information from the data
 	 */
 	private DataMajority getMajorityLabel(ArrayList<Example> data){
-		HashMapCounter<Double> counter = new HashMapCounter<Double>();
+		double[] weights = new double[labels.size()];
+		double totalWeight = 0.0;
 		
 		for( Example d: data ){
-			counter.increment(d.getLabel());
+			weights[labels.getId(d.getLabel())] += d.getWeight();
+			totalWeight += d.getWeight();
 		}
 		
-		double maxLabel = 0.0;
-		int maxCount = -1;
+		int maxId = 0;
 		
-		for( Double key: counter.keySet() ){
-			if( counter.get(key) > maxCount ){
-				maxCount = counter.get(key);
-				maxLabel = key;
+		for( int id = 1; id < weights.length; id++ ){
+			if( weights[id] > weights[maxId] ){
+				maxId = id;
 			}
 		}
 		
-		return new DataMajority(maxLabel, maxCount, ((double)maxCount)/data.size());
+		double maxWeight = weights[maxId];
+		return new DataMajority(labels.getLabel(maxId), maxWeight, totalWeight, maxWeight/totalWeight);
 	}
 		
 	@Override
@@ -237,12 +241,14 @@ public class DecisionTreeClassifier implements Classifier{
 	 */
 	private class DataMajority{
 		public double majorityLabel;
-		public int majorityCount;
+		public double majorityWeight;
+		public double totalWeight;
 		public double confidence;
 		
-		public DataMajority(double majorityLabel, int majorityCount, double confidence){
+		public DataMajority(double majorityLabel, double majorityWeight, double totalWeight, double confidence){
 			this.majorityLabel = majorityLabel;
-			this.majorityCount = majorityCount;
+			this.majorityWeight = majorityWeight;
+			this.totalWeight = totalWeight;
 			this.confidence = confidence;
 		}
 	}	
@@ -30,7 +30,7 @@ public class GradientDescentClassifier implements Classifier {
 	private double lambda;
 	private double eta; // aka learning rate
 	
-	private HashMap<Integer, Double> weights; // the feature weights
+	private double[] weights; // the feature weights, indexed by feature
 	private double b; // the intersect weight
 	
 	protected int iterations;
@@ -44,7 +44,7 @@ public class GradientDescentClassifier implements Classifier {
 		this.regularization = NO_REGULARIZATION;
 		this.lambda = 0.01;
 		this.eta = 0.01;
-		this.weights = new HashMap<>();
+		this.weights = new double[0];
 		this.b = 0;
 		this.iterations = 10;
 	}
@@ -57,7 +57,7 @@ public class GradientDescentClassifier implements Classifier {
 	@Override
 	@SuppressWarnings("unchecked")
 	public void train(DataSet data) {
-		initializeWeights(data.getAllFeatureIndices());
+		initializeWeights(data.getNumFeatures());
 
 		ArrayList<Example> training = (ArrayList<Example>)data.getData().clone();
 
@@ -70,22 +70,28 @@ public class GradientDescentClassifier implements Classifier {
 				double prediction = getDistanceFromHyperplane(e, this.weights, this.b); // y'
 				double c = calculateLoss(label, prediction); // loss(label, prediction)
 
+				// a weighted example takes a step as big as its copies would together
+				double stepSize = this.eta * e.getWeight();
+
 				// update loss for printing
-				lossSum += getLoss(label, prediction); // uncomment for reg calculation
+				lossSum += e.getWeight() * getLoss(label, prediction); // uncomment for reg calculation
+
+				// update the weights (only over the non-zero features)
+				for( int i = 0; i < e.getNumFeatures(); i++ ){
+					int featureIndex = e.getFeatureIndexAt(i);
 
-				// update the weights
-				//for( Integer featureIndex: weights.keySet() ){
-				for( Integer featureIndex: e.getFeatureSet() ){
+					if( featureIndex >= this.weights.length ){
+						continue;
+					}
 
 					// get grad desc
-					double oldWeight = this.weights.get(featureIndex); // wj
-					double featureValue = e.getFeature(featureIndex); // xij
+					double oldWeight = this.weights[featureIndex]; // wj
+					double featureValue = e.getFeatureValueAt(i); // xij
 					double r = calculateRegularization(oldWeight); // regularization(oldWeight)
 
 					// update weights
 					// wj = wj + eta ((yi * xij * c) - (lambda * r))
-					double newWeight = oldWeight + this.eta * ((featureValue * label * c) - (this.lambda * r));
-					weights.put(featureIndex, newWeight);
+					this.weights[featureIndex] = oldWeight + stepSize * ((featureValue * label * c) - (this.lambda * r));
 				}
 
 				// regularization(bias)
@@ -93,7 +99,7 @@ public class GradientDescentClassifier implements Classifier {
 
 				// update bias on a per-example basis
 				// b = b + eta ((yi * 1 * c) - (lambda * r))
-				this.b += this.eta * ((label * c) - (this.lambda * rBias));
+				this.b += stepSize * ((label * c) - (this.lambda * rBias));
 
 				// print weights for questions 1 and 2
 				// System.out.printf("GD classifier weights for example %d at iteration %d\n", training.indexOf(e), it);
@@ -139,7 +145,7 @@ public class GradientDescentClassifier implements Classifier {
 	 * @param inputB the b value to use
 	 * @return the prediction
 	 */
-	private static double getPrediction(Example e, HashMap<Integer, Double> w, double inputB){
+	private static double getPrediction(Example e, double[] w, double inputB){
 		double sum = getDistanceFromHyperplane(e,w,inputB);
 
 		if( sum > 0 ){
@@ -301,12 +307,12 @@ public class GradientDescentClassifier implements Classifier {
 
 		// loss = loss(y,y') + lambda * ||w||^
 		if (this.regularization == L1_REGULARIZATION) {
-			loss += this.lambda * calculatePNorm(this.weights.values(), 1);
+			loss += this.lambda * calculatePNorm(this.weights, 1);
 		}
 
 		// loss = loss(y,y') + lambda/2 * ||w||^2
 		if (this.regularization == L2_REGULARIZATION) {
-			loss += (this.lambda / 2.0) * calculatePNorm(this.weights.values(), 2);
+			loss += (this.lambda / 2.0) * calculatePNorm(this.weights, 2);
 		}
 
 		return loss;
@@ -318,7 +324,7 @@ public class GradientDescentClassifier implements Classifier {
 	 * @param vector
 	 * @return A double representing the norm of a vector.
 	 */
-	private static double calculatePNorm(Collection<Double> vector, double p) {
+	private static double calculatePNorm(double[] vector, double p) {
 		double normSum = 0.0;
 
 		for (double d : vector) {
@@ -336,13 +342,17 @@ public class GradientDescentClassifier implements Classifier {
 	 * @param inputB
 	 * @return a double representing the distance from the hyperplane
 	 */
-	private static double getDistanceFromHyperplane(Example e, HashMap<Integer, Double> w, double inputB){
+	private static double getDistanceFromHyperplane(Example e, double[] w, double inputB){
 		double sum = inputB;
 		
-		//for(Integer featureIndex: w.keySet()){
-		// only need to iterate over non-zero features
-		for( Integer featureIndex: e.getFeatureSet()){
-			sum += w.get(featureIndex) * e.getFeature(featureIndex);
+		// only need to iterate over non-zero features; features the weights
+		// don't cover were never seen in training so have weight 0
+		for( int i = 0; i < e.getNumFeatures(); i++ ){
+			int featureIndex = e.getFeatureIndexAt(i);
+
+			if( featureIndex < w.length ){
+				sum += w[featureIndex] * e.getFeatureValueAt(i);
+			}
 		}
 		
 		return sum;
@@ -351,10 +361,10 @@ public class GradientDescentClassifier implements Classifier {
 	/**
 	 * Initialize the weights and the intersect value
 	 *
-	 * @param features
+	 * @param numFeatures
 	 */
-	protected void initializeWeights(Set<Integer> features){
-		weights = getZeroWeights(features);
+	protected void initializeWeights(int numFeatures){
+		weights = getZeroWeights(numFeatures);
 		b = 0;
 	}
 
@@ -362,17 +372,11 @@ public class GradientDescentClassifier implements Classifier {
 	 * Get a weight vector over the set of features with each weight
 	 * set to 0
 	 *
-	 * @param features the set of features to learn over
+	 * @param numFeatures the number of features to learn over
 	 * @return
 	 */
-	protected HashMap<Integer, Double> getZeroWeights(Set<Integer> features){
-		HashMap<Integer, Double> temp = new HashMap<Integer, Double>();
-
-		for( Integer f: features){
-			temp.put(f, 0.0);
-		}
-
-		return temp;
+	protected double[] getZeroWeights(int numFeatures){
+		return new double[numFeatures];
 	}
 
 	/**
@@ -408,11 +412,8 @@ public class GradientDescentClassifier implements Classifier {
 	public String toString(){
 		StringBuffer buffer = new StringBuffer();
 		
-		ArrayList<Integer> temp = new ArrayList<Integer>(weights.keySet());
-		Collections.sort(temp);
-		
-		for(Integer index: temp){
-			buffer.append(index + ":" + weights.get(index) + " ");
+		for( int index = 0; index < weights.length; index++ ){
+			buffer.append(index + ":" + weights[index] + " ");
 		}
 
 		buffer.append("b:" + this.b + " ");
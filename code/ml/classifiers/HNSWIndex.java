@@ -0,0 +1,505 @@
+package ml.classifiers;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * A hierarchical navigable small world (HNSW) graph over dense points for approximate
+ * nearest neighbor search (Malkov and Yashunin).
+ *
+ * Every point is on layer 0 and, with exponentially decreasing probability, on layers
+ * above it.  Each point links to up to M nearby points on every layer it's on (2M on
+ * layer 0).  A search starts at the top layer's entry point, walks greedily down to
+ * layer 0, and then does a best-first search there keeping the ef nearest points seen;
+ * larger ef finds more of the true nearest neighbors at the cost of more distance
+ * computations.
+ *
+ * The points can be inserted in parallel.  Each point's links are guarded by a lock on
+ * its link arrays, and a point is only linked to from other points after its own links
+ * are in place, so concurrent insertions and searches always see a usable graph.  Which
+ * points a new point links to depends on which insertions finished before it, though,
+ * so a graph built in parallel (and the neighbors searches find in it) can differ from
+ * one build to the next even with the same seed.  Inserted one at a time, in order, the
+ * same points and seed always give the same graph.
+ *
+ * Distances are squared euclidean distances.
+ */
+class HNSWIndex {
+    private final int dims;
+    private final double[] points; // row-major
+    private final int numPoints;
+    private final int m;
+    private final int efConstruction;
+
+    private final int[] levels; // the top layer each point is on
+    // links[point][layer] holds the number of links followed by the linked points
+    private final int[][][] links;
+
+    private final Object entryLock = new Object();
+    private volatile int entryPoint;
+    private volatile int maxLevel;
+
+    private final ThreadLocal<Scratch> buildScratch;
+
+    /**
+     * Build the graph.
+     *
+     * @param points row-major, numPoints rows of dims values
+     * @param numPoints
+     * @param dims
+     * @param m how many links points get on each layer (twice that on layer 0)
+     * @param efConstruction how many candidates to consider when linking a new point
+     * @param seed for choosing which layers points are on
+     * @param parallel whether to insert the points in parallel; the graph is only the same
+     * every time if not
+     */
+    HNSWIndex(double[] points, int numPoints, int dims, int m, int efConstruction, long seed, boolean parallel) {
+        this.dims = dims;
+        this.points = points;
+        this.numPoints = numPoints;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.levels = new int[numPoints];
+        this.links = new int[numPoints][][];
+
+        // a point is on layer l with probability (1/m)^l
+        double levelMultiplier = 1.0 / Math.log(m);
+        Random random = new Random(seed);
+
+        for (int i = 0; i < numPoints; i++) {
+            this.levels[i] = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+            this.links[i] = new int[this.levels[i] + 1][];
+
+            for (int layer = 0; layer <= this.levels[i]; layer++) {
+                this.links[i][layer] = new int[maxLinks(layer) + 1];
+            }
+        }
+
+        this.buildScratch = ThreadLocal.withInitial(() -> newScratch(efConstruction));
+
+        if (numPoints > 0) {
+            this.entryPoint = 0;
+            this.maxLevel = this.levels[0];
+            IntStream inserts = IntStream.range(1, numPoints);
+            (parallel ? inserts.parallel() : inserts).forEach(this::insert);
+        }
+    }
+
+    /**
+     * @return the most links a point can have on layer
+     */
+    private int maxLinks(int layer) {
+        return layer == 0 ? 2 * this.m : this.m;
+    }
+
+    /**
+     * @param ef how many candidates searches with this scratch space keep
+     * @return scratch space for one search at a time
+     */
+    Scratch newScratch(int ef) {
+        return new Scratch(this.numPoints, ef, 2 * this.m);
+    }
+
+    /**
+     * Add point to the graph.
+     *
+     * @param point
+     */
+    private void insert(int point) {
+        if (this.levels[point] > this.maxLevel) {
+            // this point becomes the new entry point, so make sure no one else is changing it
+            synchronized (this.entryLock) {
+                link(point);
+
+                if (this.levels[point] > this.maxLevel) {
+                    this.entryPoint = point;
+                    this.maxLevel = this.levels[point];
+                }
+            }
+        } else {
+            link(point);
+        }
+    }
+
+    /**
+     * Link point to its neighbors on each of its layers, and them to it.
+     *
+     * @param point
+     */
+    private void link(int point) {
+        Scratch scratch = this.buildScratch.get();
+        int offset = point * this.dims;
+        int current;
+        int top;
+
+        synchronized (this.entryLock) {
+            current = this.entryPoint;
+            top = this.maxLevel;
+        }
+
+        // walk down to the point's top layer
+        for (int layer = top; layer > this.levels[point]; layer--) {
+            current = greedyClosest(this.points, offset, current, layer, scratch);
+        }
+
+        for (int layer = Math.min(top, this.levels[point]); layer >= 0; layer--) {
+            int count = searchLayer(this.points, offset, current, this.efConstruction, layer, scratch);
+            current = scratch.found[0];
+
+            int[] selected = selectNeighbors(scratch.found, scratch.foundDistances, count, this.m);
+
+            synchronized (this.links[point]) {
+                int[] pointLinks = this.links[point][layer];
+                pointLinks[0] = selected.length;
+                System.arraycopy(selected, 0, pointLinks, 1, selected.length);
+            }
+
+            for (int neighbor : selected) {
+                addLink(neighbor, point, layer);
+            }
+        }
+    }
+
+    /**
+     * Link from to to on layer, dropping links if from has too many.
+     */
+    private void addLink(int from, int to, int layer) {
+        synchronized (this.links[from]) {
+            int[] fromLinks = this.links[from][layer];
+            int count = fromLinks[0];
+
+            if (count < fromLinks.length - 1) {
+                fromLinks[count + 1] = to;
+                fromLinks[0] = count + 1;
+                return;
+            }
+
+            // too many links: keep the ones the selection heuristic picks out of all of them
+            int[] candidates = new int[count + 1];
+            double[] distances = new double[count + 1];
+            Integer[] order = new Integer[count + 1];
+
+            for (int i = 0; i <= count; i++) {
+                candidates[i] = i < count ? fromLinks[i + 1] : to;
+                distances[i] = distance(this.points, from * this.dims, candidates[i]);
+                order[i] = i;
+            }
+
+            Arrays.sort(order, (a, b) -> distances[a] != distances[b]
+                    ? Double.compare(distances[a], distances[b])
+                    : Integer.compare(candidates[a], candidates[b]));
+
+            int[] sortedCandidates = new int[count + 1];
+            double[] sortedDistances = new double[count + 1];
+
+            for (int i = 0; i <= count; i++) {
+                sortedCandidates[i] = candidates[order[i]];
+                sortedDistances[i] = distances[order[i]];
+            }
+
+            int[] kept = selectNeighbors(sortedCandidates, sortedDistances, count + 1, fromLinks.length - 1);
+            fromLinks[0] = kept.length;
+            System.arraycopy(kept, 0, fromLinks, 1, kept.length);
+        }
+    }
+
+    /**
+     * The neighbor selection heuristic: going from nearest to farthest, keep a candidate
+     * only if it's closer to the new point than to any candidate already kept.  This keeps
+     * links going in different directions rather than all into the same cluster.
+     *
+     * @param candidates sorted nearest first
+     * @param distances the candidates' distances to the new point
+     * @param count how many candidates there are
+     * @param max the most to keep
+     * @return the kept candidates
+     */
+    private int[] selectNeighbors(int[] candidates, double[] distances, int count, int max) {
+        int[] kept = new int[Math.min(count, max)];
+        int numKept = 0;
+
+        for (int i = 0; i < count && numKept < kept.length; i++) {
+            int candidate = candidates[i];
+            boolean keep = true;
+
+            for (int j = 0; j < numKept && keep; j++) {
+                keep = distance(this.points, candidate * this.dims, kept[j]) >= distances[i];
+            }
+
+            if (keep) {
+                kept[numKept++] = candidate;
+            }
+        }
+
+        return Arrays.copyOf(kept, numKept);
+    }
+
+    /**
+     * Find approximately the K nearest points to query, where K is the size of neighbors.
+     *
+     * @param query dims values
+     * @param neighbors where to put the nearest points; offered (squared distance, index)
+     * @param scratch from newScratch; its ef is how many candidates the search keeps
+     */
+    void search(double[] query, NeighborHeap neighbors, Scratch scratch) {
+        if (this.numPoints == 0) {
+            return;
+        }
+
+        int current;
+        int top;
+
+        synchronized (this.entryLock) {
+            current = this.entryPoint;
+            top = this.maxLevel;
+        }
+
+        for (int layer = top; layer > 0; layer--) {
+            current = greedyClosest(query, 0, current, layer, scratch);
+        }
+
+        int count = searchLayer(query, 0, current, scratch.ef, 0, scratch);
+
+        for (int i = 0; i < count; i++) {
+            neighbors.offer(scratch.foundDistances[i], scratch.found[i]);
+        }
+    }
+
+    /**
+     * Starting at start, repeatedly move to whichever linked point on layer is closest to
+     * the query until none is closer.
+     *
+     * @return the closest point found
+     */
+    private int greedyClosest(double[] query, int queryOffset, int start, int layer, Scratch scratch) {
+        int current = start;
+        double currentDistance = distance(query, queryOffset, current);
+        boolean moved = true;
+
+        while (moved) {
+            moved = false;
+            int count = copyLinks(current, layer, scratch);
+
+            for (int i = 0; i < count; i++) {
+                int neighbor = scratch.linkBuffer[i];
+                double d = distance(query, queryOffset, neighbor);
+
+                if (d < currentDistance) {
+                    current = neighbor;
+                    currentDistance = d;
+                    moved = true;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Best-first search of layer from start, keeping the ef nearest points seen.  The
+     * nearest points are left in scratch.found (nearest first) with their distances in
+     * scratch.foundDistances.
+     *
+     * @return how many points were found
+     */
+    private int searchLayer(double[] query, int queryOffset, int start, int ef, int layer, Scratch scratch) {
+        NeighborHeap nearest = scratch.nearest(ef);
+        CandidateQueue candidates = scratch.candidates;
+        int visit = scratch.nextVisit();
+
+        double startDistance = distance(query, queryOffset, start);
+        scratch.visited[start] = visit;
+        candidates.push(startDistance, start);
+        nearest.offer(startDistance, start);
+
+        while (!candidates.isEmpty()) {
+            double candidateDistance = candidates.minDistance();
+            int candidate = candidates.pop();
+
+            if (nearest.isFull() && candidateDistance > nearest.maxDistance()) {
+                break;
+            }
+
+            int count = copyLinks(candidate, layer, scratch);
+
+            for (int i = 0; i < count; i++) {
+                int neighbor = scratch.linkBuffer[i];
+
+                if (scratch.visited[neighbor] == visit) {
+                    continue;
+                }
+
+                scratch.visited[neighbor] = visit;
+                double d = distance(query, queryOffset, neighbor);
+
+                if (!nearest.isFull() || d < nearest.maxDistance()) {
+                    candidates.push(d, neighbor);
+                    nearest.offer(d, neighbor);
+                }
+            }
+        }
+
+        candidates.clear();
+        int count = nearest.sortAscending();
+
+        for (int i = 0; i < count; i++) {
+            scratch.found[i] = nearest.indexAt(i);
+            scratch.foundDistances[i] = nearest.distanceAt(i);
+        }
+
+        return count;
+    }
+
+    /**
+     * Copy point's links on layer into scratch.linkBuffer.
+     *
+     * @return how many links there are
+     */
+    private int copyLinks(int point, int layer, Scratch scratch) {
+        synchronized (this.links[point]) {
+            int[] pointLinks = this.links[point][layer];
+            int count = pointLinks[0];
+            System.arraycopy(pointLinks, 1, scratch.linkBuffer, 0, count);
+            return count;
+        }
+    }
+
+    private double distance(double[] query, int queryOffset, int point) {
+        int offset = point * this.dims;
+        double sum = 0.0;
+
+        for (int d = 0; d < this.dims; d++) {
+            double diff = query[queryOffset + d] - this.points[offset + d];
+            sum += diff * diff;
+        }
+
+        return sum;
+    }
+
+    /**
+     * The scratch space one search needs.
+     */
+    static class Scratch {
+        private final int ef;
+        private final int[] visited; // point --> the last visit that saw it
+        private int visit;
+        private final CandidateQueue candidates = new CandidateQueue();
+        private NeighborHeap nearest;
+        private int[] found;
+        private double[] foundDistances;
+        private final int[] linkBuffer;
+
+        private Scratch(int numPoints, int ef, int maxLinks) {
+            this.ef = ef;
+            this.visited = new int[numPoints];
+            this.linkBuffer = new int[maxLinks];
+        }
+
+        /**
+         * @return the start of a new search's visits
+         */
+        private int nextVisit() {
+            if (++this.visit == Integer.MAX_VALUE) {
+                Arrays.fill(this.visited, 0);
+                this.visit = 1;
+            }
+
+            return this.visit;
+        }
+
+        /**
+         * @return an empty heap that keeps ef points
+         */
+        private NeighborHeap nearest(int ef) {
+            if (this.nearest == null || this.found.length != ef) {
+                this.nearest = new NeighborHeap(ef);
+                this.found = new int[ef];
+                this.foundDistances = new double[ef];
+            }
+
+            this.nearest.clear();
+            return this.nearest;
+        }
+    }
+
+    /**
+     * A growable min-heap of (distance, point) pairs.
+     */
+    private static class CandidateQueue {
+        private double[] distances = new double[64];
+        private int[] points = new int[64];
+        private int size;
+
+        boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        void clear() {
+            this.size = 0;
+        }
+
+        double minDistance() {
+            return this.distances[0];
+        }
+
+        void push(double distance, int point) {
+            if (this.size == this.distances.length) {
+                this.distances = Arrays.copyOf(this.distances, this.size * 2);
+                this.points = Arrays.copyOf(this.points, this.size * 2);
+            }
+
+            int pos = this.size++;
+
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+
+                if (this.distances[parent] <= distance) {
+                    break;
+                }
+
+                this.distances[pos] = this.distances[parent];
+                this.points[pos] = this.points[parent];
+                pos = parent;
+            }
+
+            this.distances[pos] = distance;
+            this.points[pos] = point;
+        }
+
+        /**
+         * @return the point with the smallest distance, which is removed
+         */
+        int pop() {
+            int min = this.points[0];
+            double distance = this.distances[--this.size];
+            int point = this.points[this.size];
+            int pos = 0;
+
+            while (true) {
+                int child = 2 * pos + 1;
+
+                if (child >= this.size) {
+                    break;
+                }
+
+                if (child + 1 < this.size && this.distances[child + 1] < this.distances[child]) {
+                    child++;
+                }
+
+                if (this.distances[child] >= distance) {
+                    break;
+                }
+
+                this.distances[pos] = this.distances[child];
+                this.points[pos] = this.points[child];
+                pos = child;
+            }
+
+            this.distances[pos] = distance;
+            this.points[pos] = point;
+
+            return min;
+        }
+    }
+}
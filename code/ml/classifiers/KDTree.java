@@ -0,0 +1,235 @@
+package ml.classifiers;
+
+import java.util.Arrays;
+
+/**
+ * A KD-tree over dense points for exact nearest neighbor search.
+ *
+ * Each internal node splits its points at the median of the dimension they're most
+ * spread out along; nodes with at most leafSize points are leaves.  The points are
+ * stored in tree order so that each leaf's points are contiguous.
+ *
+ * Searches are branch-and-bound: the nearer child is searched first, and the farther
+ * child only if the squared distance from the query to its cell (tracked incrementally,
+ * one offset per dimension) could still beat the K-th nearest point found so far.
+ * Distances are squared euclidean distances.
+ */
+class KDTree {
+    private final int dims;
+    private final double[] points; // row-major, in tree order
+    private final int[] order; // tree position --> index of the point passed in
+
+    // nodes; leaves have splitDims of -1 and children of -1
+    private int numNodes;
+    private int[] splitDims;
+    private double[] splitValues;
+    private int[] lefts;
+    private int[] rights;
+    private int[] starts; // each node covers tree positions [start, end)
+    private int[] ends;
+
+    /**
+     * Build a tree over points.
+     *
+     * @param points row-major, numPoints rows of dims values
+     * @param numPoints
+     * @param dims
+     * @param leafSize the most points a leaf can have
+     */
+    KDTree(double[] points, int numPoints, int dims, int leafSize) {
+        this.dims = dims;
+        this.order = new int[numPoints];
+
+        for (int i = 0; i < numPoints; i++) {
+            this.order[i] = i;
+        }
+
+        int capacity = 16;
+        this.splitDims = new int[capacity];
+        this.splitValues = new double[capacity];
+        this.lefts = new int[capacity];
+        this.rights = new int[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+
+        build(points, 0, numPoints, Math.max(1, leafSize));
+
+        // copy the points into tree order
+        this.points = new double[numPoints * dims];
+
+        for (int pos = 0; pos < numPoints; pos++) {
+            System.arraycopy(points, this.order[pos] * dims, this.points, pos * dims, dims);
+        }
+    }
+
+    /**
+     * Build the subtree over tree positions [start, end).
+     *
+     * @return the subtree's node
+     */
+    private int build(double[] points, int start, int end, int leafSize) {
+        int node = newNode(start, end);
+
+        if (end - start <= leafSize) {
+            return node;
+        }
+
+        // split along the dimension with the largest spread
+        int splitDim = -1;
+        double maxSpread = 0.0;
+
+        for (int d = 0; d < this.dims; d++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+
+            for (int pos = start; pos < end; pos++) {
+                double value = points[this.order[pos] * this.dims + d];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+
+            if (max - min > maxSpread) {
+                maxSpread = max - min;
+                splitDim = d;
+            }
+        }
+
+        // all of the points are the same
+        if (splitDim == -1) {
+            return node;
+        }
+
+        int middle = (start + end) >>> 1;
+        select(points, start, end, middle, splitDim);
+
+        this.splitDims[node] = splitDim;
+        this.splitValues[node] = points[this.order[middle] * this.dims + splitDim];
+
+        int left = build(points, start, middle, leafSize);
+        int right = build(points, middle, end, leafSize);
+        this.lefts[node] = left;
+        this.rights[node] = right;
+
+        return node;
+    }
+
+    private int newNode(int start, int end) {
+        if (this.numNodes == this.splitDims.length) {
+            int capacity = this.numNodes * 2;
+            this.splitDims = Arrays.copyOf(this.splitDims, capacity);
+            this.splitValues = Arrays.copyOf(this.splitValues, capacity);
+            this.lefts = Arrays.copyOf(this.lefts, capacity);
+            this.rights = Arrays.copyOf(this.rights, capacity);
+            this.starts = Arrays.copyOf(this.starts, capacity);
+            this.ends = Arrays.copyOf(this.ends, capacity);
+        }
+
+        int node = this.numNodes++;
+        this.splitDims[node] = -1;
+        this.lefts[node] = -1;
+        this.rights[node] = -1;
+        this.starts[node] = start;
+        this.ends[node] = end;
+
+        return node;
+    }
+
+    /**
+     * Reorder tree positions [start, end) so that position k has the point that would be
+     * there if they were sorted along dim, with no larger values before it and no smaller
+     * ones after it (quickselect).
+     */
+    private void select(double[] points, int start, int end, int k, int dim) {
+        int lo = start;
+        int hi = end - 1;
+
+        while (lo < hi) {
+            double pivot = points[this.order[(lo + hi) >>> 1] * this.dims + dim];
+            int i = lo;
+            int j = hi;
+
+            while (i <= j) {
+                while (points[this.order[i] * this.dims + dim] < pivot) {
+                    i++;
+                }
+
+                while (points[this.order[j] * this.dims + dim] > pivot) {
+                    j--;
+                }
+
+                if (i <= j) {
+                    int swap = this.order[i];
+                    this.order[i] = this.order[j];
+                    this.order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Find the K nearest points to query, where K is the size of neighbors.
+     *
+     * @param query dims values
+     * @param neighbors where to put the nearest points; offered (squared distance, index)
+     * @param offsets scratch space of at least dims values
+     */
+    void search(double[] query, NeighborHeap neighbors, double[] offsets) {
+        Arrays.fill(offsets, 0, this.dims, 0.0);
+        search(0, 0.0, query, neighbors, offsets);
+    }
+
+    /**
+     * @param node the subtree to search
+     * @param cellDistance the squared distance from the query to the node's cell
+     */
+    private void search(int node, double cellDistance, double[] query, NeighborHeap neighbors, double[] offsets) {
+        int splitDim = this.splitDims[node];
+
+        if (splitDim == -1) {
+            for (int pos = this.starts[node]; pos < this.ends[node]; pos++) {
+                neighbors.offer(squaredDistance(query, pos), this.order[pos]);
+            }
+
+            return;
+        }
+
+        double diff = query[splitDim] - this.splitValues[node];
+        int near = diff <= 0 ? this.lefts[node] : this.rights[node];
+        int far = diff <= 0 ? this.rights[node] : this.lefts[node];
+
+        search(near, cellDistance, query, neighbors, offsets);
+
+        // moving to the far cell replaces this dimension's offset; points at exactly the
+        // K-th distance can still win on index, so only strictly farther cells are pruned
+        double oldOffset = offsets[splitDim];
+        double farDistance = cellDistance - oldOffset * oldOffset + diff * diff;
+
+        if (!neighbors.isFull() || farDistance <= neighbors.maxDistance()) {
+            offsets[splitDim] = diff;
+            search(far, farDistance, query, neighbors, offsets);
+            offsets[splitDim] = oldOffset;
+        }
+    }
+
+    private double squaredDistance(double[] query, int pos) {
+        int offset = pos * this.dims;
+        double sum = 0.0;
+
+        for (int d = 0; d < this.dims; d++) {
+            double diff = query[d] - this.points[offset + d];
+            sum += diff * diff;
+        }
+
+        return sum;
+    }
+}
@@ -2,25 +2,114 @@ package ml.classifiers;
 
 import ml.data.DataSet;
 import ml.data.Example;
-import ml.data.ExampleWithDistance;
+import ml.data.LabelDictionary;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-
-import static java.util.Collections.*;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
  * A class to represent a K Nearest Neighbor classifier
  *
+ * Rather than sorting every training example by distance, classify keeps the K nearest
+ * seen so far in a fixed size max-heap, so a query takes O(n log K) time and doesn't
+ * allocate anything. Neighbors at the same distance are ordered by their position in
+ * the training data. The vote is counted in an array indexed by class id; if classes tie,
+ * the one with the nearest neighbor wins.
+ *
+ * The brute force scan stops summing an example's distance as soon as the partial sum is
+ * past the K-th nearest distance so far, since it can't get any nearer. When the data is
+ * dense enough to lay out as a matrix, the features are laid out in order of decreasing
+ * variance so the sum grows as fast as possible and examples are abandoned early.
+ *
+ * How the nearest neighbors are found is set with setSearchMode. Brute force compares
+ * the query to every training example. A KD-tree (see KDTree) prunes the parts of the
+ * training data that can't contain a nearer neighbor, which makes queries sub-linear in
+ * low dimensions. Both find exactly the same neighbors by euclidean distance.
+ *
+ * For sparse data such as text, SPARSE_COSINE_SEARCH ranks neighbors by cosine similarity
+ * instead, using an inverted index (see CosineIndex) so a query only looks at the training
+ * examples that share a feature with it.
+ *
+ * For large training sets where exact search is too slow, HNSW_SEARCH finds approximately
+ * the nearest neighbors by euclidean distance with a layered proximity graph (see
+ * HNSWIndex). setHNSWParameters trades accuracy against speed, and measureRecall reports
+ * how many of the neighbors it finds are as near as the exact nearest neighbors and how
+ * long it takes to find them. The graph is built in parallel by default, which makes it
+ * (and so the predictions) vary a little from one training run to the next; see
+ * setHNSWParallelBuild for reproducible experiments.
+ *
+ * LSH_COSINE_SEARCH and LSH_EUCLIDEAN_SEARCH are a cheaper approximation: the training
+ * examples are bucketed by locality-sensitive hashes (see LSHIndex), and a query only
+ * computes distances to the examples that share a bucket with it. Training examples can
+ * be added one at a time with addExample, which the hash tables take incrementally.
+ *
+ * To choose K, evaluateAllK finds each test example's neighbors once and measures the
+ * accuracy of every K up to a maximum from them.
+ *
  * Prepared for CS158 Assignment 04. Authored by David D'Attile
  */
 public class KNNClassifier implements Classifier {
+    // constants for the different ways of finding the nearest neighbors
+    public static final int AUTO_SEARCH = 0;
+    public static final int BRUTE_FORCE_SEARCH = 1;
+    public static final int KD_TREE_SEARCH = 2;
+    public static final int SPARSE_COSINE_SEARCH = 3;
+    public static final int HNSW_SEARCH = 4;
+    public static final int LSH_COSINE_SEARCH = 5;
+    public static final int LSH_EUCLIDEAN_SEARCH = 6;
+
+    // AUTO_SEARCH uses a KD-tree for data with at most this many features; in more
+    // dimensions the tree ends up visiting most of the leaves anyway
+    private static final int KD_TREE_MAX_FEATURES = 20;
+
+    // chooses which layers of the HNSW graph each training example is on; the graph is
+    // only the same from run to run if it's built sequentially (see setHNSWParallelBuild)
+    private static final long HNSW_SEED = 158;
+
+    // chooses the LSH projections
+    private static final long LSH_SEED = 158;
+
+    // classifyAll works on blocks of this many test examples against tiles of this many
+    // training examples. Brute force search only lays the training data out densely if
+    // that takes at most MAX_DENSE_VALUES values and the examples store at least
+    // MIN_DENSE_FRACTION of the features; for sparse data, merging the stored features is
+    // less work.
+    private static final int TEST_BLOCK_SIZE = 64;
+    private static final int TRAIN_TILE_SIZE = 256;
+    private static final long MAX_DENSE_VALUES = 1L << 24;
+    private static final double MIN_DENSE_FRACTION = 0.25;
+
+    // how many features the brute force scan sums between checks of the partial distance
+    private static final int ABANDON_CHECK_INTERVAL = 4;
+
     private int k;
+    private int searchMode;
+    private int leafSize;
+    private int hnswM;
+    private int hnswEfConstruction;
+    private int hnswEfSearch;
+    private boolean hnswParallelBuild;
+    private int lshTables;
+    private int lshHashWidth;
+    private double lshBucketWidth;
     private ArrayList<Example> comparisonExamples;
+    private LabelDictionary labels;
+    private int[] comparisonClassIds; // class id of each comparison example, with room to add more
+    private int numFeatures;
+    private KDTree kdTree; // null unless searching with a KD-tree
+    private CosineIndex cosineIndex; // null unless searching by cosine similarity
+    private HNSWIndex hnswIndex; // null unless searching an HNSW graph
+    private LSHIndex lshIndex; // null unless searching LSH tables
+
+    // the training data as a dense row-major matrix, with the features in the order of
+    // featurePositions, and its squared row norms; only for brute force search of dense data
+    private double[] denseExamples;
+    private double[] squaredNorms;
+    private int[] featurePositions; // feature index --> column in denseExamples
+
+    // scratch space for classify
+    private QueryState state;
 
     /**
      * Initialize the KNN classifier. At initialization, the classifier
@@ -28,12 +117,30 @@ public class KNNClassifier implements Classifier {
      */
     public KNNClassifier() {
         this.k = 3;
+        this.searchMode = AUTO_SEARCH;
+        this.leafSize = 16;
+        this.hnswM = 16;
+        this.hnswEfConstruction = 200;
+        this.hnswEfSearch = 50;
+        this.hnswParallelBuild = true;
+        this.lshTables = 10;
+        this.lshHashWidth = 8;
+        this.lshBucketWidth = 4.0;
         this.comparisonExamples = new ArrayList<>();
+        this.labels = new LabelDictionary(new double[0], 0);
+        this.comparisonClassIds = new int[0];
+        this.numFeatures = 0;
+        this.kdTree = null;
+        this.cosineIndex = null;
+        this.hnswIndex = null;
+        this.lshIndex = null;
+        this.state = newQueryState();
     }
 
     /**
      * Saves the data to compare a provided example to. Explicitly, the classifier
-     * clones the provided data examples.
+     * clones the provided data examples, and builds the search index if the search
+     * mode uses one.
      *
      * @param data
      */
@@ -41,6 +148,107 @@ public class KNNClassifier implements Classifier {
     @SuppressWarnings("unchecked")
     public void train(DataSet data) {
         this.comparisonExamples = (ArrayList<Example>) data.getData().clone();
+        this.labels = data.getLabelDictionary();
+        this.comparisonClassIds = data.getEncodedLabels().clone();
+        this.numFeatures = data.getNumFeatures();
+        buildIndex();
+        this.state = newQueryState();
+    }
+
+    /**
+     * Add example to the training data. The LSH tables take it incrementally; any other
+     * search index is rebuilt, so to add many examples at once, train on them instead.
+     * Features past the ones the classifier was trained with are ignored. Should only be
+     * called *after* train has been called.
+     *
+     * @param example
+     */
+    public void addExample(Example example) {
+        int index = this.comparisonExamples.size();
+        this.comparisonExamples.add(example);
+
+        int classId = this.labels.getId(example.getLabel());
+
+        if (classId == -1) {
+            // a new label changes the class ids, so encode all of the labels again
+            double[] allLabels = new double[index + 1];
+            for (int i = 0; i <= index; i++) {
+                allLabels[i] = this.comparisonExamples.get(i).getLabel();
+            }
+
+            this.labels = new LabelDictionary(allLabels, allLabels.length);
+            this.comparisonClassIds = new int[allLabels.length];
+            for (int i = 0; i <= index; i++) {
+                this.comparisonClassIds[i] = this.labels.getId(allLabels[i]);
+            }
+        } else {
+            if (index == this.comparisonClassIds.length) {
+                this.comparisonClassIds = Arrays.copyOf(this.comparisonClassIds, Math.max(16, 2 * index));
+            }
+
+            this.comparisonClassIds[index] = classId;
+        }
+
+        if (this.lshIndex != null) {
+            this.lshIndex.add(example);
+        } else {
+            buildIndex();
+        }
+
+        this.state = newQueryState();
+    }
+
+    /**
+     * Build the search index of the current search mode over the comparison examples,
+     * if it uses one.
+     */
+    private void buildIndex() {
+        this.kdTree = null;
+        this.cosineIndex = null;
+        this.hnswIndex = null;
+        this.lshIndex = null;
+        this.denseExamples = null;
+        this.squaredNorms = null;
+        this.featurePositions = null;
+
+        if (this.searchMode == LSH_COSINE_SEARCH || this.searchMode == LSH_EUCLIDEAN_SEARCH) {
+            this.lshIndex = new LSHIndex(this.numFeatures, this.lshTables, this.lshHashWidth,
+                    this.lshBucketWidth, this.searchMode == LSH_EUCLIDEAN_SEARCH, LSH_SEED);
+
+            for (Example e : this.comparisonExamples) {
+                this.lshIndex.add(e);
+            }
+        }
+
+        if (this.searchMode == SPARSE_COSINE_SEARCH) {
+            this.cosineIndex = new CosineIndex(this.comparisonExamples, this.numFeatures);
+        }
+
+        boolean useKDTree = this.searchMode == KD_TREE_SEARCH
+                || (this.searchMode == AUTO_SEARCH && this.numFeatures <= KD_TREE_MAX_FEATURES);
+        boolean bruteForce = this.searchMode == BRUTE_FORCE_SEARCH
+                || (this.searchMode == AUTO_SEARCH && !useKDTree);
+
+        // the brute force scan goes over a dense matrix if the data is dense enough
+        if (bruteForce && useDenseKernel()) {
+            buildDenseExamples();
+        }
+
+        if (useKDTree || this.searchMode == HNSW_SEARCH) {
+            int numExamples = this.comparisonExamples.size();
+            double[] points = new double[numExamples * this.numFeatures];
+
+            for (int i = 0; i < numExamples; i++) {
+                toDense(this.comparisonExamples.get(i), points, i * this.numFeatures);
+            }
+
+            if (useKDTree) {
+                this.kdTree = new KDTree(points, numExamples, this.numFeatures, this.leafSize);
+            } else {
+                this.hnswIndex = new HNSWIndex(points, numExamples, this.numFeatures,
+                        this.hnswM, this.hnswEfConstruction, HNSW_SEED, this.hnswParallelBuild);
+            }
+        }
     }
 
     /**
@@ -51,25 +259,429 @@ public class KNNClassifier implements Classifier {
      */
     @Override
     public double classify(Example example) {
-        // init examples w/distance array
-        List<ExampleWithDistance> esWithDistance = new ArrayList<>();
+        // find the K nearest comparison examples
+        findNeighbors(example, this.state);
+
+        // return majority class from top-K examples
+        return findMajorityLabel(this.state.neighbors, this.state.votes);
+    }
 
-        // calculate distance from the example to all other comparison examples
-        for (Example compExample : this.comparisonExamples) {
-            ExampleWithDistance eWithDistance = new ExampleWithDistance(compExample, calculateDistance(example, compExample));
-            esWithDistance.add(eWithDistance);
+    /**
+     * Classify every example in data, in parallel, in blocks. Every search mode gives the
+     * same labels as classify except brute force search of dense data, which can differ
+     * when training examples are (nearly) tied for the K-th nearest.
+     *
+     * That's because brute force search of dense data lays the training and test examples
+     * out as dense matrices and computes the squared distances as ||a||^2 + ||b||^2 - 2 a.b,
+     * a tile of training examples against a block of test examples at a time so the tile
+     * stays in cache. Computed this way, distances can differ from classify's in the last
+     * bits, so examples at (nearly) the same distance may rank differently.
+     *
+     * @param data
+     * @return the predicted label of each example, in the order of data.getData()
+     */
+    @Override
+    public double[] classifyAll(DataSet data) {
+        ArrayList<Example> examples = data.getData();
+        double[] predictions = new double[examples.size()];
+        int numBlocks = (examples.size() + TEST_BLOCK_SIZE - 1) / TEST_BLOCK_SIZE;
+        boolean dense = this.denseExamples != null;
+
+        IntStream.range(0, numBlocks).parallel().forEach(block -> {
+            int start = block * TEST_BLOCK_SIZE;
+            int end = Math.min(start + TEST_BLOCK_SIZE, examples.size());
+
+            if (dense) {
+                classifyBlock(examples, start, end, predictions);
+            } else {
+                QueryState blockState = newQueryState();
+
+                for (int i = start; i < end; i++) {
+                    findNeighbors(examples.get(i), blockState);
+                    predictions[i] = findMajorityLabel(blockState.neighbors, blockState.votes);
+                }
+            }
+        });
+
+        return predictions;
+    }
+
+    /**
+     * Measure the accuracy on data of every K from 1 to maxK. Each example's maxK nearest
+     * neighbors are found once, and the vote for each K is counted from the first K of
+     * them, so the whole sweep costs about as much as one pass with K = maxK. Ties are
+     * broken the same way as in classify, so with an exact search mode the accuracy for
+     * each K is what classify gets with that K. The examples are done in parallel, in
+     * blocks. Should only be called *after* train has been called.
+     *
+     * @param data
+     * @param maxK
+     * @return the fraction of the examples (by example weight) predicted correctly for
+     *         each K, with K = 1 at index 0
+     */
+    public double[] evaluateAllK(DataSet data, int maxK) {
+        if (maxK <= 0) {
+            String msg = String.format("expected a positive maximum K-value; received %d", maxK);
+            throw new IllegalArgumentException(msg);
         }
 
-        // sort from lowest --> highest distance (using ExampleWithDistance)
-        Collections.sort(esWithDistance);
+        ArrayList<Example> examples = data.getData();
+        int numBlocks = (examples.size() + TEST_BLOCK_SIZE - 1) / TEST_BLOCK_SIZE;
+        double[] accuracies = new double[maxK];
 
-        // trim to top-K examples and account for there being a higher K
-        // than features potentially available
-        int maxIndex = Math.min(esWithDistance.size(), this.k);
-        List<ExampleWithDistance> topKExamples = esWithDistance.subList(0, maxIndex);
+        IntStream.range(0, numBlocks).parallel().forEach(block -> {
+            int start = block * TEST_BLOCK_SIZE;
+            int end = Math.min(start + TEST_BLOCK_SIZE, examples.size());
+            QueryState blockState = newQueryState(maxK);
+            int[] firstRanks = new int[this.labels.size()];
+            double[] blockCorrect = new double[maxK];
 
-        // return majority class from top-K examples
-        return findMajorityLabel(topKExamples);
+            for (int i = start; i < end; i++) {
+                findNeighbors(examples.get(i), blockState);
+                addCorrectForAllK(examples.get(i), blockState, firstRanks, blockCorrect);
+            }
+
+            synchronized (accuracies) {
+                for (int k = 0; k < maxK; k++) {
+                    accuracies[k] += blockCorrect[k];
+                }
+            }
+        });
+
+        double total = 0.0;
+        for (Example e : examples) {
+            total += e.getWeight();
+        }
+
+        for (int k = 0; k < maxK; k++) {
+            accuracies[k] /= total;
+        }
+
+        return accuracies;
+    }
+
+    /**
+     * Vote over the first K of example's nearest neighbors for each K in turn, and add the
+     * example's weight to the count of each K whose vote gets its label right. The leader
+     * is updated as each neighbor's vote comes in: a class takes the lead with more votes
+     * than the leader, or as many and a nearer neighbor, which is the rule
+     * findMajorityLabel uses.
+     *
+     * @param example
+     * @param state holds the nearest neighbors; emptied by this method
+     * @param firstRanks scratch space indexed by class id
+     * @param correct the weight predicted correctly for each K, with K = 1 at index 0
+     */
+    private void addCorrectForAllK(Example example, QueryState state, int[] firstRanks, double[] correct) {
+        NeighborHeap neighbors = state.neighbors;
+        int[] votes = state.votes;
+        int count = neighbors.sortAscending();
+        int leader = -1;
+
+        for (int rank = 0; rank < correct.length; rank++) {
+            // with fewer than K training examples, every one votes
+            if (rank < count) {
+                int classId = this.comparisonClassIds[neighbors.indexAt(rank)];
+
+                if (votes[classId]++ == 0) {
+                    firstRanks[classId] = rank;
+                }
+
+                if (leader == -1 || votes[classId] > votes[leader]
+                        || (votes[classId] == votes[leader] && firstRanks[classId] < firstRanks[leader])) {
+                    leader = classId;
+                }
+            }
+
+            if (leader != -1 && this.labels.getLabel(leader) == example.getLabel()) {
+                correct[rank] += example.getWeight();
+            }
+        }
+
+        // reset the votes
+        for (int rank = 0; rank < count; rank++) {
+            votes[this.comparisonClassIds[neighbors.indexAt(rank)]] = 0;
+        }
+    }
+
+    /**
+     * Classify examples [start, end) with the dense distance kernel.
+     *
+     * @param examples
+     * @param start
+     * @param end
+     * @param predictions where to put the predicted labels
+     */
+    private void classifyBlock(ArrayList<Example> examples, int start, int end, double[] predictions) {
+        int blockSize = end - start;
+        int dims = this.numFeatures;
+        int numTrain = this.comparisonExamples.size();
+
+        // the block as a dense matrix, with its squared norms
+        double[] queries = new double[blockSize * dims];
+        double[] queryNorms = new double[blockSize];
+        NeighborHeap[] neighbors = new NeighborHeap[blockSize];
+
+        for (int q = 0; q < blockSize; q++) {
+            toOrderedDense(examples.get(start + q), queries, q * dims);
+            queryNorms[q] = squaredNorm(queries, q * dims, dims);
+            neighbors[q] = new NeighborHeap(this.k);
+        }
+
+        for (int tileStart = 0; tileStart < numTrain; tileStart += TRAIN_TILE_SIZE) {
+            int tileEnd = Math.min(tileStart + TRAIN_TILE_SIZE, numTrain);
+
+            for (int q = 0; q < blockSize; q++) {
+                int queryOffset = q * dims;
+                NeighborHeap queryNeighbors = neighbors[q];
+
+                for (int t = tileStart; t < tileEnd; t++) {
+                    int trainOffset = t * dims;
+                    double dot = 0.0;
+
+                    for (int d = 0; d < dims; d++) {
+                        dot += queries[queryOffset + d] * this.denseExamples[trainOffset + d];
+                    }
+
+                    queryNeighbors.offer(queryNorms[q] + this.squaredNorms[t] - 2 * dot, t);
+                }
+            }
+        }
+
+        int[] votes = new int[this.labels.size()];
+
+        for (int q = 0; q < blockSize; q++) {
+            predictions[start + q] = findMajorityLabel(neighbors[q], votes);
+        }
+    }
+
+    /**
+     * @return whether the training data is small and dense enough for the dense kernel
+     */
+    private boolean useDenseKernel() {
+        long matrixSize = (long) this.comparisonExamples.size() * this.numFeatures;
+        long stored = 0;
+
+        for (Example e : this.comparisonExamples) {
+            stored += e.getNumFeatures();
+        }
+
+        return matrixSize <= MAX_DENSE_VALUES && stored >= MIN_DENSE_FRACTION * matrixSize;
+    }
+
+    /**
+     * Lay the training examples out as a dense matrix, with the features in order of
+     * decreasing variance, and compute their squared norms.
+     */
+    private void buildDenseExamples() {
+        int numTrain = this.comparisonExamples.size();
+
+        // the variance of each feature; features an example doesn't store are 0
+        double[] sums = new double[this.numFeatures];
+        double[] squaredSums = new double[this.numFeatures];
+
+        for (Example e : this.comparisonExamples) {
+            for (int pos = 0; pos < e.getNumFeatures(); pos++) {
+                int featureIndex = e.getFeatureIndexAt(pos);
+
+                if (featureIndex < this.numFeatures) {
+                    double value = e.getFeatureValueAt(pos);
+                    sums[featureIndex] += value;
+                    squaredSums[featureIndex] += value * value;
+                }
+            }
+        }
+
+        Integer[] order = new Integer[this.numFeatures];
+        double[] variances = new double[this.numFeatures];
+
+        for (int f = 0; f < this.numFeatures; f++) {
+            double mean = sums[f] / Math.max(1, numTrain);
+            variances[f] = squaredSums[f] / Math.max(1, numTrain) - mean * mean;
+            order[f] = f;
+        }
+
+        Arrays.sort(order, (f1, f2) -> Double.compare(variances[f2], variances[f1]));
+        this.featurePositions = new int[this.numFeatures];
+
+        for (int pos = 0; pos < this.numFeatures; pos++) {
+            this.featurePositions[order[pos]] = pos;
+        }
+
+        double[] matrix = new double[numTrain * this.numFeatures];
+        double[] norms = new double[numTrain];
+
+        for (int t = 0; t < numTrain; t++) {
+            toOrderedDense(this.comparisonExamples.get(t), matrix, t * this.numFeatures);
+            norms[t] = squaredNorm(matrix, t * this.numFeatures, this.numFeatures);
+        }
+
+        this.squaredNorms = norms;
+        this.denseExamples = matrix;
+    }
+
+    private static double squaredNorm(double[] values, int offset, int length) {
+        double sum = 0.0;
+
+        for (int d = 0; d < length; d++) {
+            sum += values[offset + d] * values[offset + d];
+        }
+
+        return sum;
+    }
+
+    /**
+     * Put the K nearest comparison examples to example in state's neighbors.
+     *
+     * @param example
+     * @param state
+     */
+    private void findNeighbors(Example example, QueryState state) {
+        NeighborHeap neighbors = state.neighbors;
+        neighbors.clear();
+
+        if (this.cosineIndex != null) {
+            this.cosineIndex.search(example, neighbors, state.scores, state.isCandidate, state.candidates);
+        } else if (this.kdTree != null) {
+            Arrays.fill(state.query, 0.0);
+            toDense(example, state.query, 0);
+            this.kdTree.search(state.query, neighbors, state.offsets);
+        } else if (this.hnswIndex != null) {
+            Arrays.fill(state.query, 0.0);
+            toDense(example, state.query, 0);
+            this.hnswIndex.search(state.query, neighbors, state.graphScratch);
+        } else if (this.lshIndex != null) {
+            this.lshIndex.search(example, neighbors, state.lshScratch);
+        } else if (this.denseExamples != null) {
+            Arrays.fill(state.query, 0.0);
+            toOrderedDense(example, state.query, 0);
+            scanDenseExamples(state.query, neighbors);
+        } else {
+            findExactNeighbors(example, neighbors);
+        }
+    }
+
+    /**
+     * Put the K nearest comparison examples to query in neighbors, comparing it to every
+     * row of denseExamples, but abandoning a row once its partial distance is past the
+     * K-th nearest so far.
+     *
+     * @param query laid out like the rows of denseExamples
+     * @param neighbors
+     */
+    private void scanDenseExamples(double[] query, NeighborHeap neighbors) {
+        int dims = this.numFeatures;
+        int numTrain = this.comparisonExamples.size();
+
+        for (int t = 0; t < numTrain; t++) {
+            int offset = t * dims;
+            double bound = neighbors.isFull() ? neighbors.maxDistance() : Double.POSITIVE_INFINITY;
+            double sum = 0.0;
+            int d = 0;
+
+            // a row at exactly the bound can still win on index, so only abandon past it
+            while (d < dims && sum <= bound) {
+                int end = Math.min(d + ABANDON_CHECK_INTERVAL, dims);
+
+                for (; d < end; d++) {
+                    double diff = query[d] - this.denseExamples[offset + d];
+                    sum += diff * diff;
+                }
+            }
+
+            if (sum <= bound) {
+                neighbors.offer(sum, t);
+            }
+        }
+    }
+
+    /**
+     * Put the K nearest comparison examples to example by euclidean distance in
+     * neighbors, comparing it to every one.
+     *
+     * @param example
+     * @param neighbors
+     */
+    private void findExactNeighbors(Example example, NeighborHeap neighbors) {
+        for (int i = 0; i < this.comparisonExamples.size(); i++) {
+            double bound = neighbors.isFull() ? neighbors.maxDistance() : Double.POSITIVE_INFINITY;
+            double distance = calculateDistance(example, this.comparisonExamples.get(i), bound);
+
+            if (distance <= bound) {
+                neighbors.offer(distance, i);
+            }
+        }
+    }
+
+    /**
+     * Measure how well the current search mode finds the K nearest neighbors of the
+     * examples in data, compared to an exact search: brute force by euclidean distance,
+     * or the inverted index if the search mode ranks neighbors by cosine similarity.
+     * Should only be called *after* train has been called.
+     *
+     * A neighbor the search finds counts as found if it's no farther than the exact K-th
+     * nearest neighbor, measured the way the exact search measures it. With duplicate
+     * examples many neighbors can tie at that distance, and the search may keep different
+     * ones than the exact search does; those are just as near, so they still count.
+     *
+     * @param data
+     * @return the recall and the average time per query of both searches
+     */
+    public RecallReport measureRecall(DataSet data) {
+        NeighborHeap exact = new NeighborHeap(this.k);
+        boolean cosine = this.cosineIndex != null || this.searchMode == LSH_COSINE_SEARCH;
+        CosineIndex exactCosine = null;
+        QueryState exactState = null;
+
+        if (cosine) {
+            exactCosine = this.cosineIndex != null
+                    ? this.cosineIndex : new CosineIndex(this.comparisonExamples, this.numFeatures);
+            exactState = new QueryState(this.k, 0, 0, exactCosine.size(), null, null);
+        }
+
+        long searchNanos = 0;
+        long exactNanos = 0;
+        long numFound = 0;
+        long numExact = 0;
+
+        for (Example example : data.getData()) {
+            long start = System.nanoTime();
+            findNeighbors(example, this.state);
+            searchNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            exact.clear();
+            if (cosine) {
+                exactCosine.search(example, exact, exactState.scores, exactState.isCandidate, exactState.candidates);
+            } else {
+                findExactNeighbors(example, exact);
+            }
+            exactNanos += System.nanoTime() - start;
+
+            // how many of the neighbors the search found are as near as the exact K-th
+            int exactCount = exact.sortAscending();
+            int foundCount = this.state.neighbors.sortAscending();
+
+            if (exactCount > 0) {
+                double kthDistance = exact.distanceAt(exactCount - 1);
+
+                for (int rank = 0; rank < foundCount; rank++) {
+                    Example neighbor = this.comparisonExamples.get(this.state.neighbors.indexAt(rank));
+                    double distance = cosine
+                            ? exactCosine.distance(example, neighbor) : calculateDistance(example, neighbor);
+
+                    if (distance <= kthDistance) {
+                        numFound++;
+                    }
+                }
+            }
+
+            numExact += exactCount;
+        }
+
+        int numQueries = Math.max(1, data.getData().size());
+        return new RecallReport(this.k, numExact == 0 ? 1.0 : (double) numFound / numExact,
+                searchNanos / 1000.0 / numQueries, exactNanos / 1000.0 / numQueries);
     }
 
     /**
@@ -97,58 +709,319 @@ public class KNNClassifier implements Classifier {
 
         // set K-value
         this.k = k;
+        this.state = newQueryState();
     }
 
     /**
-     * Calculates the euclidian distance between the features of two examples. Throws an
-     * error if the two examples have a different feature count.
+     * Set how the nearest neighbors are found, using the class constants. Takes effect
+     * the next time the classifier is trained.
      *
-     * @param e1
-     * @param e2
-     * @return a double representing the euclidian distance between the two given examples
-     */
-    private static double calculateDistance(Example e1, Example e2) {
-        // init feature counts
-        int e1FeatureCount = e1.getFeatureSet().size();
-        int e2FeatureCount = e2.getFeatureSet().size();
-
-        // basic error check for incompatible features
-        if (e1FeatureCount != e2FeatureCount) {
-            String msg = String.format(
-                    "cannot calculate distance between two examples with feature counts %d (e1), %d (e2)",
-                    e1FeatureCount,
-                    e2FeatureCount);
+     * @param searchMode
+     */
+    public void setSearchMode(int searchMode) {
+        switch (searchMode) {
+            case AUTO_SEARCH, BRUTE_FORCE_SEARCH, KD_TREE_SEARCH, SPARSE_COSINE_SEARCH, HNSW_SEARCH,
+                    LSH_COSINE_SEARCH, LSH_EUCLIDEAN_SEARCH ->
+                    this.searchMode = searchMode;
+            default -> {
+                String msg = String.format("expected valid search mode specification, received %d", searchMode);
+                throw new IllegalArgumentException(msg);
+            }
+        }
+    }
+
+    /**
+     * Set the most training examples a KD-tree leaf can hold. Takes effect the next time
+     * the classifier is trained.
+     *
+     * @param leafSize
+     */
+    public void setLeafSize(int leafSize) {
+        if (leafSize <= 0) {
+            String msg = String.format("expected a positive leaf size; received %d", leafSize);
             throw new IllegalArgumentException(msg);
         }
 
-        // calculate distance except final sqrt
+        this.leafSize = leafSize;
+    }
+
+    /**
+     * Set the parameters of the HNSW graph. m is how many links each training example
+     * gets (twice that on the bottom layer) and efConstruction how many candidates are
+     * considered when linking it; both take effect the next time the classifier is
+     * trained. efSearch is how many candidates a query keeps (at least K), and takes
+     * effect immediately. Larger values find more of the exact nearest neighbors but
+     * take longer.
+     *
+     * @param m
+     * @param efConstruction
+     * @param efSearch
+     */
+    public void setHNSWParameters(int m, int efConstruction, int efSearch) {
+        if (m < 2 || efConstruction <= 0 || efSearch <= 0) {
+            String msg = String.format("expected m of at least 2 and positive ef values; received %d, %d, %d",
+                    m, efConstruction, efSearch);
+            throw new IllegalArgumentException(msg);
+        }
+
+        this.hnswM = m;
+        this.hnswEfConstruction = efConstruction;
+        this.hnswEfSearch = efSearch;
+        this.state = newQueryState();
+    }
+
+    /**
+     * Set whether the HNSW graph is built in parallel (the default). Built in parallel, the
+     * graph's links depend on the order the training examples happen to be inserted in, so
+     * the neighbors found and the predictions can change between training runs on the same
+     * data. Built sequentially, they're the same every time, which makes experiments
+     * reproducible, but building takes longer. Takes effect the next time the classifier
+     * is trained.
+     *
+     * @param parallel
+     */
+    public void setHNSWParallelBuild(boolean parallel) {
+        this.hnswParallelBuild = parallel;
+    }
+
+    /**
+     * Set the parameters of the LSH tables: how many tables there are, how many hashes
+     * make up each table's key (at most 64), and, for euclidean distance, how wide each
+     * hash's buckets are. More tables find more of the nearest neighbors; wider keys and
+     * narrower buckets make fewer examples collide, so queries are faster but find fewer.
+     * Takes effect the next time the classifier is trained.
+     *
+     * @param numTables
+     * @param hashWidth
+     * @param bucketWidth
+     */
+    public void setLSHParameters(int numTables, int hashWidth, double bucketWidth) {
+        if (numTables <= 0 || hashWidth <= 0 || hashWidth > 64 || !(bucketWidth > 0)) {
+            String msg = String.format("expected positive parameters with a hash width of at most 64; received %d, %d, %f",
+                    numTables, hashWidth, bucketWidth);
+            throw new IllegalArgumentException(msg);
+        }
+
+        this.lshTables = numTables;
+        this.lshHashWidth = hashWidth;
+        this.lshBucketWidth = bucketWidth;
+    }
+
+    /**
+     * Calculates the squared euclidian distance between the features of two examples.
+     * The square root is left off since it doesn't change which examples are nearest.
+     *
+     * @param e1
+     * @param e2
+     * @return a double representing the squared euclidian distance between the two given examples
+     */
+    static double calculateDistance(Example e1, Example e2) {
+        return calculateDistance(e1, e2, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Calculates the squared euclidian distance between the features of two examples,
+     * but stops as soon as the distance so far is past bound.
+     *
+     * @param e1
+     * @param e2
+     * @param bound
+     * @return the squared euclidian distance, or a partial sum past bound
+     */
+    private static double calculateDistance(Example e1, Example e2, double bound) {
+        int e1FeatureCount = e1.getNumFeatures();
+        int e2FeatureCount = e2.getNumFeatures();
         double d = 0.0;
-        for (int i = 0; i < e1FeatureCount; i++) {
-            d += Math.pow(e1.getFeature(i) - e2.getFeature(i), 2);
+
+        // merge the stored features; a feature only one example stores is 0 in the other
+        int pos1 = 0;
+        int pos2 = 0;
+        while (pos1 < e1FeatureCount || pos2 < e2FeatureCount) {
+            int index1 = pos1 < e1FeatureCount ? e1.getFeatureIndexAt(pos1) : Integer.MAX_VALUE;
+            int index2 = pos2 < e2FeatureCount ? e2.getFeatureIndexAt(pos2) : Integer.MAX_VALUE;
+            double diff;
+
+            if (index1 == index2) {
+                diff = e1.getFeatureValueAt(pos1++) - e2.getFeatureValueAt(pos2++);
+            } else if (index1 < index2) {
+                diff = e1.getFeatureValueAt(pos1++);
+            } else {
+                diff = -e2.getFeatureValueAt(pos2++);
+            }
+
+            d += diff * diff;
+
+            if (d > bound) {
+                break;
+            }
         }
 
-        // return final distance
-        return Math.sqrt(d);
+        return d;
     }
 
+    /**
+     * Write the features of example that the training data has into a dense array.
+     * Entries for features the example doesn't store are left alone.
+     *
+     * @param example
+     * @param values
+     * @param offset where feature 0 goes in values
+     */
+    private void toDense(Example example, double[] values, int offset) {
+        for (int pos = 0; pos < example.getNumFeatures(); pos++) {
+            int featureIndex = example.getFeatureIndexAt(pos);
+
+            if (featureIndex < this.numFeatures) {
+                values[offset + featureIndex] = example.getFeatureValueAt(pos);
+            }
+        }
+    }
 
     /**
-     * Retrieves the majority label ina collection of examples w/distance.
+     * Write the features of example that the training data has into a dense array laid
+     * out like the rows of denseExamples. Entries for features the example doesn't store
+     * are left alone.
      *
-     * @param data
-     * @return The majority label of the supplied data set.
-     */
-    private static double findMajorityLabel(List<ExampleWithDistance> data) {
-
-        // this is a general solution that will work for data with labels that
-        // aren't just binary!
-        return data.stream()
-                .map(ExampleWithDistance::getLabel)
-                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()))
-                .entrySet()
-                .stream()
-                .max(Map.Entry.comparingByValue())
-                .orElseThrow()
-                .getKey();
+     * @param example
+     * @param values
+     * @param offset where the first column goes in values
+     */
+    private void toOrderedDense(Example example, double[] values, int offset) {
+        for (int pos = 0; pos < example.getNumFeatures(); pos++) {
+            int featureIndex = example.getFeatureIndexAt(pos);
+
+            if (featureIndex < this.numFeatures) {
+                values[offset + this.featurePositions[featureIndex]] = example.getFeatureValueAt(pos);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the majority label of the neighbors. If several labels have the most
+     * votes, the one with the nearest neighbor wins.
+     *
+     * @param neighbors the nearest neighbors; emptied by this method
+     * @param votes scratch space indexed by class id; all zeros
+     * @return The majority label of the neighbors.
+     */
+    private double findMajorityLabel(NeighborHeap neighbors, int[] votes) {
+        int count = neighbors.sortAscending();
+
+        // count the votes
+        int maxVotes = 0;
+        for (int rank = 0; rank < count; rank++) {
+            int classId = this.comparisonClassIds[neighbors.indexAt(rank)];
+            maxVotes = Math.max(maxVotes, ++votes[classId]);
+        }
+
+        // the nearest neighbor with a winning class decides; reset the votes as we go
+        int winner = -1;
+        for (int rank = 0; rank < count; rank++) {
+            int classId = this.comparisonClassIds[neighbors.indexAt(rank)];
+
+            if (winner == -1 && votes[classId] == maxVotes) {
+                winner = classId;
+            }
+
+            votes[classId] = 0;
+        }
+
+        return this.labels.getLabel(winner);
+    }
+
+    /**
+     * @return scratch space for a query against the current training data
+     */
+    private QueryState newQueryState() {
+        return newQueryState(this.k);
+    }
+
+    /**
+     * @param k how many neighbors to find
+     * @return scratch space for a query for the k nearest neighbors in the current
+     *         training data
+     */
+    private QueryState newQueryState(int k) {
+        int denseSize = this.kdTree != null || this.hnswIndex != null || this.denseExamples != null
+                ? this.numFeatures : 0;
+        int numScores = this.cosineIndex != null ? this.cosineIndex.size() : 0;
+        HNSWIndex.Scratch graphScratch = this.hnswIndex != null
+                ? this.hnswIndex.newScratch(Math.max(this.hnswEfSearch, k)) : null;
+        LSHIndex.Scratch lshScratch = this.lshIndex != null ? this.lshIndex.newScratch() : null;
+
+        return new QueryState(k, this.labels.size(), denseSize, numScores, graphScratch, lshScratch);
+    }
+
+    /**
+     * How well a search mode finds the nearest neighbors, from measureRecall.
+     */
+    public static class RecallReport {
+        private final int k;
+        private final double recall;
+        private final double searchMicros;
+        private final double exactMicros;
+
+        private RecallReport(int k, double recall, double searchMicros, double exactMicros) {
+            this.k = k;
+            this.recall = recall;
+            this.searchMicros = searchMicros;
+            this.exactMicros = exactMicros;
+        }
+
+        /**
+         * @return the fraction of the K neighbors the search found that are no farther
+         * than the exact K-th nearest neighbor
+         */
+        public double getRecall() {
+            return recall;
+        }
+
+        /**
+         * @return the average microseconds per query with the current search mode
+         */
+        public double getSearchMicros() {
+            return searchMicros;
+        }
+
+        /**
+         * @return the average microseconds per query with the exact search
+         */
+        public double getExactMicros() {
+            return exactMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("recall@%d %.4f, %.1f us/query (exact %.1f us/query)",
+                    k, recall, searchMicros, exactMicros);
+        }
+    }
+
+    /**
+     * The scratch space one query needs, so that queries don't allocate anything.
+     */
+    private static class QueryState {
+        private final NeighborHeap neighbors;
+        private final int[] votes; // class id --> votes
+        private final double[] query; // the query as a dense array
+        private final double[] offsets; // KD-tree search offsets
+        private final double[] scores; // cosine similarity per training example (cosine index only)
+        private final boolean[] isCandidate;
+        private final int[] candidates;
+        private final HNSWIndex.Scratch graphScratch; // HNSW search scratch space (HNSW only)
+        private final LSHIndex.Scratch lshScratch; // LSH search scratch space (LSH only)
+
+        QueryState(int k, int numClasses, int denseSize, int numScores, HNSWIndex.Scratch graphScratch,
+                LSHIndex.Scratch lshScratch) {
+            this.neighbors = new NeighborHeap(k);
+            this.votes = new int[numClasses];
+            this.query = new double[denseSize];
+            this.offsets = new double[denseSize];
+            this.scores = new double[numScores];
+            this.isCandidate = new boolean[numScores];
+            this.candidates = new int[numScores];
+            this.graphScratch = graphScratch;
+            this.lshScratch = lshScratch;
+        }
     }
 }
@@ -0,0 +1,305 @@
+package ml.classifiers;
+
+import ml.data.Example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Locality-sensitive hash tables over sparse examples for approximate nearest neighbor
+ * search.
+ *
+ * Each table hashes an example with hashWidth random projections of it.  For cosine
+ * similarity each projection gives one bit, which side of a random hyperplane the
+ * example is on.  For euclidean distance each projection (onto a gaussian, so 2-stable,
+ * direction) is offset by a random amount and cut into buckets of bucketWidth.  Examples
+ * that are close together are likely to hash the same in at least one table.
+ *
+ * A query only computes exact distances to the examples it collides with in some table.
+ * If fewer than K examples collide, it falls back to comparing against all of them, so
+ * there are always K neighbors.  Neighbors are ranked by squared euclidean distance, or
+ * by cosine distance (1 - cosine similarity; 1 if either example is all zeros).
+ *
+ * Examples can be added at any time; each one is numbered in the order it was added.
+ */
+class LSHIndex {
+    private final int numFeatures;
+    private final int numTables;
+    private final int hashWidth;
+    private final double bucketWidth;
+    private final boolean euclidean;
+
+    // projections[f * numHashes + h] is feature f's weight in hash h, where table t has
+    // hashes [t * hashWidth, (t + 1) * hashWidth)
+    private final double[] projections;
+    private final double[] offsets; // euclidean only
+
+    private final HashMap<Long, Bucket>[] tables;
+    private final ArrayList<Example> examples;
+    private double[] norms = new double[16]; // cosine only
+
+    /**
+     * Create an empty index.
+     *
+     * @param numFeatures features at or beyond this index are ignored
+     * @param numTables
+     * @param hashWidth how many projections make up each table's hash, at most 64
+     * @param bucketWidth how wide the euclidean buckets are; unused for cosine
+     * @param euclidean whether to search by euclidean distance rather than cosine similarity
+     * @param seed for choosing the projections
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    LSHIndex(int numFeatures, int numTables, int hashWidth, double bucketWidth, boolean euclidean, long seed) {
+        this.numFeatures = numFeatures;
+        this.numTables = numTables;
+        this.hashWidth = hashWidth;
+        this.bucketWidth = bucketWidth;
+        this.euclidean = euclidean;
+
+        int numHashes = numTables * hashWidth;
+        Random random = new Random(seed);
+        this.projections = new double[numFeatures * numHashes];
+        this.offsets = new double[numHashes];
+
+        for (int i = 0; i < this.projections.length; i++) {
+            this.projections[i] = random.nextGaussian();
+        }
+
+        for (int h = 0; h < numHashes; h++) {
+            this.offsets[h] = random.nextDouble() * bucketWidth;
+        }
+
+        this.tables = new HashMap[numTables];
+
+        for (int t = 0; t < numTables; t++) {
+            this.tables[t] = new HashMap<>();
+        }
+
+        this.examples = new ArrayList<>();
+    }
+
+    /**
+     * Add example to the index, numbered after the ones already in it.
+     *
+     * @param example
+     */
+    void add(Example example) {
+        int index = this.examples.size();
+        this.examples.add(example);
+
+        if (!this.euclidean) {
+            if (index == this.norms.length) {
+                this.norms = Arrays.copyOf(this.norms, 2 * index);
+            }
+
+            this.norms[index] = norm(example);
+        }
+
+        double[] values = new double[this.numTables * this.hashWidth];
+        project(example, values);
+
+        for (int t = 0; t < this.numTables; t++) {
+            this.tables[t].computeIfAbsent(key(values, t), key -> new Bucket()).add(index);
+        }
+    }
+
+    /**
+     * @return the number of examples in the index
+     */
+    int size() {
+        return this.examples.size();
+    }
+
+    /**
+     * @return scratch space for one search at a time
+     */
+    Scratch newScratch() {
+        return new Scratch(this.numTables * this.hashWidth);
+    }
+
+    /**
+     * Find approximately the K nearest examples to query, where K is the size of neighbors.
+     *
+     * @param query
+     * @param neighbors where to put the nearest examples; offered (distance, index)
+     * @param scratch from newScratch
+     */
+    void search(Example query, NeighborHeap neighbors, Scratch scratch) {
+        scratch.ensureCapacity(this.examples.size());
+        project(query, scratch.projections);
+        double queryNorm = this.euclidean ? 0.0 : norm(query);
+
+        // gather the examples that collide with the query in any table
+        int numCandidates = 0;
+
+        for (int t = 0; t < this.numTables; t++) {
+            Bucket bucket = this.tables[t].get(key(scratch.projections, t));
+
+            if (bucket == null) {
+                continue;
+            }
+
+            for (int b = 0; b < bucket.size; b++) {
+                int example = bucket.examples[b];
+
+                if (!scratch.isCandidate[example]) {
+                    scratch.isCandidate[example] = true;
+                    scratch.candidates[numCandidates++] = example;
+                }
+            }
+        }
+
+        boolean fallBack = numCandidates < neighbors.capacity();
+
+        for (int c = 0; c < numCandidates; c++) {
+            int example = scratch.candidates[c];
+            scratch.isCandidate[example] = false;
+
+            if (!fallBack) {
+                neighbors.offer(distance(query, queryNorm, example), example);
+            }
+        }
+
+        if (fallBack) {
+            for (int i = 0; i < this.examples.size(); i++) {
+                neighbors.offer(distance(query, queryNorm, i), i);
+            }
+        }
+    }
+
+    private double distance(Example query, double queryNorm, int index) {
+        Example example = this.examples.get(index);
+
+        if (this.euclidean) {
+            return KNNClassifier.calculateDistance(query, example);
+        }
+
+        double norm = this.norms[index];
+
+        if (queryNorm == 0.0 || norm == 0.0) {
+            return 1.0;
+        }
+
+        // merge the stored features; only the ones both store add to the dot product
+        double dot = 0.0;
+        int pos1 = 0;
+        int pos2 = 0;
+
+        while (pos1 < query.getNumFeatures() && pos2 < example.getNumFeatures()) {
+            int index1 = query.getFeatureIndexAt(pos1);
+            int index2 = example.getFeatureIndexAt(pos2);
+
+            if (index1 == index2) {
+                if (index1 < this.numFeatures) {
+                    dot += query.getFeatureValueAt(pos1) * example.getFeatureValueAt(pos2);
+                }
+
+                pos1++;
+                pos2++;
+            } else if (index1 < index2) {
+                pos1++;
+            } else {
+                pos2++;
+            }
+        }
+
+        return 1.0 - dot / (queryNorm * norm);
+    }
+
+    /**
+     * Project example onto every hash's direction.
+     *
+     * @param example
+     * @param values where to put the projections, one per hash
+     */
+    private void project(Example example, double[] values) {
+        int numHashes = values.length;
+        Arrays.fill(values, 0.0);
+
+        for (int pos = 0; pos < example.getNumFeatures(); pos++) {
+            int featureIndex = example.getFeatureIndexAt(pos);
+
+            if (featureIndex >= this.numFeatures) {
+                continue;
+            }
+
+            double value = example.getFeatureValueAt(pos);
+            int row = featureIndex * numHashes;
+
+            for (int h = 0; h < numHashes; h++) {
+                values[h] += value * this.projections[row + h];
+            }
+        }
+    }
+
+    /**
+     * @param values the projections of an example
+     * @param table
+     * @return the example's key in table
+     */
+    private long key(double[] values, int table) {
+        long key = 0;
+
+        for (int h = table * this.hashWidth; h < (table + 1) * this.hashWidth; h++) {
+            if (this.euclidean) {
+                long bucket = (long) Math.floor((values[h] + this.offsets[h]) / this.bucketWidth);
+                key = key * 0x9E3779B97F4A7C15L + bucket;
+            } else {
+                key = (key << 1) | (values[h] >= 0.0 ? 1 : 0);
+            }
+        }
+
+        return key;
+    }
+
+    private double norm(Example e) {
+        double sum = 0.0;
+
+        for (int pos = 0; pos < e.getNumFeatures(); pos++) {
+            if (e.getFeatureIndexAt(pos) < this.numFeatures) {
+                sum += e.getFeatureValueAt(pos) * e.getFeatureValueAt(pos);
+            }
+        }
+
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * The examples that hash to the same key in a table.
+     */
+    private static class Bucket {
+        private int[] examples = new int[4];
+        private int size;
+
+        void add(int example) {
+            if (this.size == this.examples.length) {
+                this.examples = Arrays.copyOf(this.examples, this.size * 2);
+            }
+
+            this.examples[this.size++] = example;
+        }
+    }
+
+    /**
+     * The scratch space one search needs; grows as examples are added.
+     */
+    static class Scratch {
+        private final double[] projections;
+        private boolean[] isCandidate = new boolean[0];
+        private int[] candidates = new int[0];
+
+        private Scratch(int numHashes) {
+            this.projections = new double[numHashes];
+        }
+
+        private void ensureCapacity(int numExamples) {
+            if (this.isCandidate.length < numExamples) {
+                int capacity = Math.max(numExamples, 2 * this.isCandidate.length);
+                this.isCandidate = new boolean[capacity];
+                this.candidates = new int[capacity];
+            }
+        }
+    }
+}
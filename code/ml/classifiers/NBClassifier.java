@@ -2,11 +2,9 @@ package ml.classifiers;
 
 import ml.data.DataSet;
 import ml.data.Example;
-import ml.utils.HashMapCounter;
+import ml.data.LabelDictionary;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
  * A class to represent a Naive Bayes classifier with all feature and
@@ -17,10 +15,15 @@ import java.util.Set;
 public class NBClassifier implements Classifier {
     private double lambda; // used as smoothing param
     private boolean useOnlyPositiveFeatures;
-    private long exampleCount;
-    private Set<Integer> featureIndices;
-    private final HashMapCounter<Double> labelOccurrences;
-    private final HashMap<Double,HashMapCounter<Integer>> labelFeatureOccurrences;
+    private double exampleCount; // total example weight
+    private int numFeatures;
+    private LabelDictionary labels;
+    // counts are weighted by example weight
+    private double[] labelOccurrences; // class id --> count
+    private double[][] labelFeatureOccurrences; // class id --> per-feature counts
+
+    // class id --> sum of log(1 - p(feature | label)) over all features; lazily computed (NaN until then)
+    private double[] labelAbsentFeaturesLogProb;
 
     /**
      * Initialize the Naive Bayes classifier. At initialization/without training
@@ -31,9 +34,11 @@ public class NBClassifier implements Classifier {
         this.lambda = 0.01;
         this.useOnlyPositiveFeatures = false;
         this.exampleCount = 0;
-        this.featureIndices = new HashSet<>();
-        this.labelOccurrences = new HashMapCounter<>();
-        this.labelFeatureOccurrences = new HashMap<>();
+        this.numFeatures = 0;
+        this.labels = new LabelDictionary(new double[0], 0);
+        this.labelOccurrences = new double[0];
+        this.labelFeatureOccurrences = new double[0][0];
+        this.labelAbsentFeaturesLogProb = new double[0];
     }
 
     /**
@@ -44,27 +49,32 @@ public class NBClassifier implements Classifier {
     @Override
     public void train(DataSet data) {
         // reset feature count data
-        this.exampleCount = data.getData().size();
-        this.featureIndices = data.getAllFeatureIndices();
-        this.labelOccurrences.clear();
-        // this.allFeatureOccurrences.clear();
-        this.labelFeatureOccurrences.clear();
+        this.exampleCount = data.getTotalWeight();
+        this.numFeatures = data.getNumFeatures();
+        this.labels = data.getLabelDictionary();
+        this.labelOccurrences = new double[this.labels.size()];
+        this.labelFeatureOccurrences = new double[this.labels.size()][this.numFeatures];
+        this.labelAbsentFeaturesLogProb = new double[this.labels.size()];
+        Arrays.fill(this.labelAbsentFeaturesLogProb, Double.NaN);
+
+        int[] classIds = data.getEncodedLabels();
 
         // loop through examples
-        for (Example e : data.getData()) {
+        for (int exampleNum = 0; exampleNum < classIds.length; exampleNum++) {
+            Example e = data.getData().get(exampleNum);
+
             // increment label occurrences
-            double label = e.getLabel();
-            this.labelOccurrences.increment(label);
-
-            // loop through available features for each example
-            for (int featureNum : e.getFeatureSet()) {
-                // if label not in label feature occurrences map, put it!
-                if (!labelFeatureOccurrences.containsKey(label)) {
-                    labelFeatureOccurrences.put(label, new HashMapCounter<>());
-                }
+            int classId = classIds[exampleNum];
+            this.labelOccurrences[classId] += e.getWeight();
+
+            double[] featureCounts = this.labelFeatureOccurrences[classId];
 
-                // increment feature count if it occurs in this example
-                this.labelFeatureOccurrences.get(label).increment(featureNum); // increment per label count
+            // increment per label count for each feature that occurs in this example
+            for (int i = 0; i < e.getNumFeatures(); i++) {
+                int featureNum = e.getFeatureIndexAt(i);
+                if (featureNum < this.numFeatures) {
+                    featureCounts[featureNum] += e.getWeight();
+                }
             }
         }
     }
@@ -82,14 +92,14 @@ public class NBClassifier implements Classifier {
         double maxProbability = Double.NEGATIVE_INFINITY;
         double maxProbabilityLabel = Double.NaN;
 
-        for (double label : this.labelOccurrences.keySet()) {
+        for (int classId = 0; classId < this.labels.size(); classId++) {
             // get log probability of example and label
-            double logProbabilityOfEx = getLogProb(example, label);
+            double logProbabilityOfEx = getLogProb(example, classId);
 
             // if log prob. of example > previous, reset max probability and label
             if (logProbabilityOfEx > maxProbability) {
                 maxProbability = logProbabilityOfEx;
-                maxProbabilityLabel = label;
+                maxProbabilityLabel = this.labels.getLabel(classId);
             }
         }
 
@@ -121,8 +131,19 @@ public class NBClassifier implements Classifier {
      * @return a double representation of the log probability.
      */
     public double getLogProb(Example ex, double label) {
+        return getLogProb(ex, this.labels.getId(label));
+    }
+
+    /**
+     * The log probability of the example with the class id's label; see getLogProb(Example, double).
+     *
+     * @param ex
+     * @param classId
+     * @return a double representation of the log probability.
+     */
+    private double getLogProb(Example ex, int classId) {
         // use helper fxns based on useOnlyPositiveFeatures
-        return this.useOnlyPositiveFeatures ? getPosFeaturesLogProb(ex, label) : getAllFeaturesLogProb(ex, label);
+        return this.useOnlyPositiveFeatures ? getPosFeaturesLogProb(ex, classId) : getAllFeaturesLogProb(ex, classId);
     }
 
     /**
@@ -130,17 +151,17 @@ public class NBClassifier implements Classifier {
      * i.e. p(f1, f2, ..., fm, y) for all positive features f in a given example.
      *
      * @param ex
-     * @param label
+     * @param classId
      * @return a double representation of the positive features log prob. calculation
      */
-    private double getPosFeaturesLogProb(Example ex, double label) {
+    private double getPosFeaturesLogProb(Example ex, int classId) {
         // init example probability sum as log(prob. of label)
-        double exampleProbability = Math.log10(getLabelProbability(label));
+        double exampleProbability = Math.log10(getLabelProbability(classId));
 
         // sum log(p(feature | label))
-        for (int featureIndex : ex.getFeatureSet()) {
+        for (int i = 0; i < ex.getNumFeatures(); i++) {
             // summation of log(p(feature | label))
-            exampleProbability += Math.log10(getFeatureProb(featureIndex, label));
+            exampleProbability += Math.log10(getFeatureProb(ex.getFeatureIndexAt(i), classId));
         }
 
         return exampleProbability;
@@ -151,28 +172,52 @@ public class NBClassifier implements Classifier {
      * i.e. p(f1, f2, ..., fm, y) for all features f in a given example.
      *
      * @param ex
-     * @param label
+     * @param classId
      * @return a double representation of the all features log prob. calculation
      */
-    private double getAllFeaturesLogProb(Example ex, double label) {
-        // init example probability sum as log(prob. of label)
-        double exampleProbability = Math.log10(getLabelProbability(label));
-
-        // loop through all feature indices
-        for (int featureIndex : this.featureIndices) {
-            // get p(feature | label)
-            double featureProbability = getFeatureProb(featureIndex, label);
-
-            // if example contains feature, add log(featureProbability),
-            // otherwise, add log(1 - featureProbability).
-            exampleProbability += ex.getFeatureSet().contains(featureIndex)
-                    ? Math.log10(featureProbability)
-                    : Math.log10(1 - featureProbability);
+    private double getAllFeaturesLogProb(Example ex, int classId) {
+        // init example probability sum as log(prob. of label) plus log(1 - p(feature | label))
+        // for every feature, i.e. as if the example had none of the features
+        double exampleProbability = Math.log10(getLabelProbability(classId)) + getAbsentFeaturesLogProb(classId);
+
+        // for the features the example does contain, swap log(1 - featureProbability) for
+        // log(featureProbability); this only touches the example's non-zero features
+        for (int i = 0; i < ex.getNumFeatures(); i++) {
+            int featureIndex = ex.getFeatureIndexAt(i);
+
+            if (featureIndex < this.numFeatures) {
+                double featureProbability = getFeatureProb(featureIndex, classId);
+                exampleProbability += Math.log10(featureProbability) - Math.log10(1 - featureProbability);
+            }
         }
 
         return exampleProbability;
     }
 
+    /**
+     * A helper fxn for getting the sum of log(1 - p(feature | label)) over all features,
+     * i.e. the log probability of a label's example that has none of the features.
+     *
+     * @param classId
+     * @return a double representation of the summed log probabilities
+     */
+    private double getAbsentFeaturesLogProb(int classId) {
+        double cached = this.labelAbsentFeaturesLogProb[classId];
+
+        if (Double.isNaN(cached)) {
+            double sum = 0.0;
+
+            for (int featureIndex = 0; featureIndex < this.numFeatures; featureIndex++) {
+                sum += Math.log10(1 - getFeatureProb(featureIndex, classId));
+            }
+
+            cached = sum;
+            this.labelAbsentFeaturesLogProb[classId] = cached;
+        }
+
+        return cached;
+    }
+
     /**
      * Calculates probability of a feature with the label under
      * the current trained model, i.e. p(feature | label).
@@ -182,9 +227,21 @@ public class NBClassifier implements Classifier {
      * @returna double representation of the feature probability.
      */
     public double getFeatureProb(int featureIndex, double label) {
+        return getFeatureProb(featureIndex, this.labels.getId(label));
+    }
+
+    /**
+     * The probability of a feature with the class id's label; see getFeatureProb(int, double).
+     *
+     * @param featureIndex
+     * @param classId
+     * @return a double representation of the feature probability.
+     */
+    private double getFeatureProb(int featureIndex, int classId) {
         // get label and all occurrences of a feature
-        double labelFeatureOccurrences = this.labelFeatureOccurrences.get(label).get(featureIndex);
-        double labelOccurrences = this.labelOccurrences.get(label);
+        double[] featureCounts = this.labelFeatureOccurrences[classId];
+        double labelFeatureOccurrences = featureIndex < featureCounts.length ? featureCounts[featureIndex] : 0;
+        double labelOccurrences = this.labelOccurrences[classId];
 
         // calculate smoothed prob! -> count(feature, label) + lambda / count(label) + possible_feature_vals * lambda
         return (labelFeatureOccurrences + this.lambda) / (labelOccurrences + (2 * this.lambda));
@@ -194,11 +251,11 @@ public class NBClassifier implements Classifier {
      * A helper fxn for calculating the probability of a label, i.e.
      * label occurrences / total example count.
      *
-     * @param label
+     * @param classId
      * @return double representation of the label probability
      */
-    private double getLabelProbability(double label) {
-        return this.labelOccurrences.get(label) / (double) this.exampleCount;
+    private double getLabelProbability(int classId) {
+        return this.labelOccurrences[classId] / this.exampleCount;
     }
 
     /**
@@ -208,6 +265,7 @@ public class NBClassifier implements Classifier {
      */
     public void setLambda(double lambda) {
         this.lambda = lambda;
+        Arrays.fill(this.labelAbsentFeaturesLogProb, Double.NaN);
     }
 
     /**
@@ -0,0 +1,149 @@
+package ml.classifiers;
+
+/**
+ * A fixed size max-heap of (distance, index) pairs that keeps the K smallest pairs
+ * offered to it. Pairs are ordered by distance, then by index, so which pairs are kept
+ * doesn't depend on the order they're offered in.
+ */
+class NeighborHeap {
+    private final double[] distances;
+    private final int[] indices;
+    private int size;
+
+    /**
+     * @param k how many pairs to keep
+     */
+    NeighborHeap(int k) {
+        this.distances = new double[k];
+        this.indices = new int[k];
+    }
+
+    /**
+     * @return K, how many pairs the heap keeps
+     */
+    int capacity() {
+        return this.distances.length;
+    }
+
+    void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * @return whether the heap holds K pairs
+     */
+    boolean isFull() {
+        return this.size == this.distances.length;
+    }
+
+    /**
+     * @return the largest distance in the heap; only valid if it isn't empty
+     */
+    double maxDistance() {
+        return this.distances[0];
+    }
+
+    /**
+     * @return the index of the largest pair in the heap; only valid if it isn't empty
+     */
+    int maxIndex() {
+        return this.indices[0];
+    }
+
+    /**
+     * Add the pair if it's one of the K smallest so far.
+     *
+     * @param distance
+     * @param index
+     */
+    void offer(double distance, int index) {
+        if (this.size < this.distances.length) {
+            // sift up from the new last position
+            int pos = this.size++;
+
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+
+                if (!greater(distance, index, this.distances[parent], this.indices[parent])) {
+                    break;
+                }
+
+                this.distances[pos] = this.distances[parent];
+                this.indices[pos] = this.indices[parent];
+                pos = parent;
+            }
+
+            this.distances[pos] = distance;
+            this.indices[pos] = index;
+        } else if (greater(this.distances[0], this.indices[0], distance, index)) {
+            // replace the largest pair
+            siftDown(distance, index, this.size);
+        }
+    }
+
+    /**
+     * Put the pair at the root and sift it down within the first size positions.
+     */
+    private void siftDown(double distance, int index, int size) {
+        int pos = 0;
+
+        while (true) {
+            int child = 2 * pos + 1;
+
+            if (child >= size) {
+                break;
+            }
+
+            if (child + 1 < size && greater(this.distances[child + 1], this.indices[child + 1],
+                    this.distances[child], this.indices[child])) {
+                child++;
+            }
+
+            if (!greater(this.distances[child], this.indices[child], distance, index)) {
+                break;
+            }
+
+            this.distances[pos] = this.distances[child];
+            this.indices[pos] = this.indices[child];
+            pos = child;
+        }
+
+        this.distances[pos] = distance;
+        this.indices[pos] = index;
+    }
+
+    /**
+     * Heap sort the pairs in place so that position 0 is the nearest. The heap is
+     * empty afterwards, but the pairs can still be read with indexAt and distanceAt.
+     *
+     * @return how many pairs there are
+     */
+    int sortAscending() {
+        int count = this.size;
+
+        for (int end = count - 1; end > 0; end--) {
+            double distance = this.distances[end];
+            int index = this.indices[end];
+
+            // move the largest remaining pair to the end
+            this.distances[end] = this.distances[0];
+            this.indices[end] = this.indices[0];
+            siftDown(distance, index, end);
+        }
+
+        this.size = 0;
+        return count;
+    }
+
+    int indexAt(int pos) {
+        return this.indices[pos];
+    }
+
+    double distanceAt(int pos) {
+        return this.distances[pos];
+    }
+
+    private static boolean greater(double d1, int i1, double d2, int i2) {
+        return d1 > d2 || (d1 == d2 && i1 > i2);
+    }
+}
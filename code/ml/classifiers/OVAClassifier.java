@@ -2,9 +2,7 @@ package ml.classifiers;
 
 import ml.data.DataSet;
 import ml.data.Example;
-
-import java.util.HashMap;
-import java.util.Map;
+import ml.data.LabelDictionary;
 
 /**
  * A class to represent an OVA classifier implemented with a ClassifierFactory
@@ -13,7 +11,8 @@ import java.util.Map;
  */
 public class OVAClassifier implements Classifier{
     private final ClassifierFactory factory;
-    private final Map<Double, Classifier> labelClassifierMap;
+    private LabelDictionary labels;
+    private Classifier[] labelClassifiers; // class id --> classifier
 
     /**
      * Initialize the OVA classifier. The classifier relies on the passed
@@ -24,7 +23,7 @@ public class OVAClassifier implements Classifier{
      */
     public OVAClassifier (ClassifierFactory factory) {
         this.factory = factory;
-        this.labelClassifierMap = new HashMap<>();
+        this.labelClassifiers = new Classifier[0];
     }
 
     /**
@@ -35,23 +34,24 @@ public class OVAClassifier implements Classifier{
     @Override
     public void train(DataSet data) {
 
-        // clear classifier map if retraining
-        this.labelClassifierMap.clear();
+        // reset classifiers if retraining
+        this.labels = data.getLabelDictionary();
+        this.labelClassifiers = new Classifier[this.labels.size()];
 
         // loop through amount of labels
-        for (double currLabel : data.getLabels()) {
+        for (int classId = 0; classId < this.labels.size(); classId++) {
 
             // create classifier
             Classifier currClassifier = this.factory.getClassifier();
 
             // create binary copy of data
-            DataSet binaryLabelSet = createBinaryDatasetCopy(data, currLabel);
+            DataSet binaryLabelSet = createBinaryDatasetCopy(data, classId);
 
             // train classifier on binary data
             currClassifier.train(binaryLabelSet);
 
-            // put label --> classifier in map
-            labelClassifierMap.put(currLabel, currClassifier);
+            // class id --> classifier
+            this.labelClassifiers[classId] = currClassifier;
         }
     }
 
@@ -71,10 +71,11 @@ public class OVAClassifier implements Classifier{
         double negConfidentLabel = Double.NaN;
 
         // loop through binary classifiers and classify
-        for (double currLabel : this.labelClassifierMap.keySet()) {
+        for (int classId = 0; classId < this.labelClassifiers.length; classId++) {
 
             // get classifier, classify, and get classification confidence
-            Classifier currClassifier = this.labelClassifierMap.get(currLabel);
+            double currLabel = this.labels.getLabel(classId);
+            Classifier currClassifier = this.labelClassifiers[classId];
             double currClassification = currClassifier.classify(example);
             double currConfidence = currClassifier.confidence(example);
 
@@ -108,23 +109,24 @@ public class OVAClassifier implements Classifier{
 
     /**
      * Helper function that creates a binary copy of the provided dataset where
-     * the label specified is changed to '1.0' and all others are changed to '-1.0'
+     * the examples of the class specified are labeled '1.0' and all others '-1.0'
      *
      * @param dataSet
-     * @param positiveLabel
+     * @param positiveClassId
      * @return the new binary data set representation
      */
-    private static DataSet createBinaryDatasetCopy(DataSet dataSet, double positiveLabel) {
+    private static DataSet createBinaryDatasetCopy(DataSet dataSet, int positiveClassId) {
 
         // make new dataset based on provided dataset's feature map
         DataSet binaryDataSet = new DataSet(dataSet.getFeatureMap());
+        int[] classIds = dataSet.getEncodedLabels();
 
         // add modified examples based on original data set's examples
-        for (Example e : dataSet.getData()) {
-            Example binaryExample = new Example(e);
+        for (int i = 0; i < classIds.length; i++) {
+            Example binaryExample = new Example(dataSet.getData().get(i));
 
             // transition to binary example based on provided label
-            if (binaryExample.getLabel() == positiveLabel) {
+            if (classIds[i] == positiveClassId) {
                 binaryExample.setLabel(1.0);
             } else {
                 binaryExample.setLabel(-1.0);
@@ -2,8 +2,6 @@ package ml.classifiers;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Set;
 import java.util.Random;
 
 import ml.data.DataSet;
@@ -16,7 +14,7 @@ import ml.data.Example;
  *
  */
 public class PerceptronClassifier implements Classifier {
-	protected HashMap<Integer, Double> weights; // the feature weights
+	protected double[] weights; // the feature weights, indexed by feature
 	protected double b = 0; // the intersect weight
 	
 	protected int iterations = 10;
@@ -25,26 +23,20 @@ public class PerceptronClassifier implements Classifier {
 	 * Get a weight vector over the set of features with each weight
 	 * set to 0
 	 * 
-	 * @param features the set of features to learn over
+	 * @param numFeatures the number of features to learn over
 	 * @return
 	 */
-	protected HashMap<Integer, Double> getZeroWeights(Set<Integer> features){
-		HashMap<Integer, Double> temp = new HashMap<Integer, Double>();
-		
-		for( Integer f: features){
-			temp.put(f, 0.0);
-		}
-		
-		return temp;
+	protected double[] getZeroWeights(int numFeatures){
+		return new double[numFeatures];
 	}
 	
 	/**
 	 * Initialize the weights and the intersect value
 	 * 
-	 * @param features
+	 * @param numFeatures
 	 */
-	protected void initializeWeights(Set<Integer> features){
-		weights = getZeroWeights(features);
+	protected void initializeWeights(int numFeatures){
+		weights = getZeroWeights(numFeatures);
 		b = 0;
 	}
 	
@@ -58,7 +50,7 @@ public class PerceptronClassifier implements Classifier {
 	}
 	
 	public void train(DataSet data) {
-		initializeWeights(data.getAllFeatureIndices());
+		initializeWeights(data.getNumFeatures());
 		
 		ArrayList<Example> training = (ArrayList<Example>)data.getData().clone();
 		
@@ -67,15 +59,16 @@ public class PerceptronClassifier implements Classifier {
 			
 			for( Example e: training ){
 				if( getPrediction(e) != e.getLabel() ){
-					double label = e.getLabel();
+					// a weighted example makes a proportionally larger update
+					double label = e.getLabel()*e.getWeight();
 					
-					// update the weights
-					//for( Integer featureIndex: weights.keySet() ){
-					for( Integer featureIndex: e.getFeatureSet() ){
-						double oldWeight = weights.get(featureIndex);
-						double featureValue = e.getFeature(featureIndex);
+					// update the weights (only the non-zero features change)
+					for( int i = 0; i < e.getNumFeatures(); i++ ){
+						int featureIndex = e.getFeatureIndexAt(i);
 						
-						weights.put(featureIndex, oldWeight + featureValue*label);
+						if( featureIndex < weights.length ){
+							weights[featureIndex] += e.getFeatureValueAt(i)*label;
+						}
 					}
 					
 					// update b
@@ -114,7 +107,7 @@ public class PerceptronClassifier implements Classifier {
 	 * @param inputB the b value to use
 	 * @return the prediction
 	 */
-	protected static double getPrediction(Example e, HashMap<Integer, Double> w, double inputB){
+	protected static double getPrediction(Example e, double[] w, double inputB){
 		double sum = getDistanceFromHyperplane(e,w,inputB);
 
 		if( sum > 0 ){
@@ -126,13 +119,17 @@ public class PerceptronClassifier implements Classifier {
 		}
 	}
 	
-	protected static double getDistanceFromHyperplane(Example e, HashMap<Integer, Double> w, double inputB){
+	protected static double getDistanceFromHyperplane(Example e, double[] w, double inputB){
 		double sum = inputB;
 		
-		//for(Integer featureIndex: w.keySet()){
-		// only need to iterate over non-zero features
-		for( Integer featureIndex: e.getFeatureSet()){
-			sum += w.get(featureIndex) * e.getFeature(featureIndex);
+		// only need to iterate over non-zero features; features the weights
+		// don't cover were never seen in training so have weight 0
+		for( int i = 0; i < e.getNumFeatures(); i++ ){
+			int featureIndex = e.getFeatureIndexAt(i);
+			
+			if( featureIndex < w.length ){
+				sum += w[featureIndex] * e.getFeatureValueAt(i);
+			}
 		}
 		
 		return sum;
@@ -141,11 +138,8 @@ public class PerceptronClassifier implements Classifier {
 	public String toString(){
 		StringBuffer buffer = new StringBuffer();
 		
-		ArrayList<Integer> temp = new ArrayList<Integer>(weights.keySet());
-		Collections.sort(temp);
-		
-		for(Integer index: temp){
-			buffer.append(index + ":" + weights.get(index) + " ");
+		for( int index = 0; index < weights.length; index++ ){
+			buffer.append(index + ":" + weights[index] + " ");
 		}
 		
 		return buffer.substring(0, buffer.length()-1);
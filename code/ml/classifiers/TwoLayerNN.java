@@ -4,12 +4,17 @@ import ml.data.DataSet;
 import ml.data.Example;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Random;
 
 /**
  * A class to represent a two-layer NN classifier
  *
+ * The input layer is a reusable array filled from each example, with the bias as an
+ * extra input fixed at 1 after the data's features.  So neither training nor
+ * classifying copies any examples to add the bias.
+ *
  * Prepared for CS158 Assignment 08. Authored by David D'Attile
  */
 public class TwoLayerNN implements Classifier {
@@ -41,6 +46,14 @@ public class TwoLayerNN implements Classifier {
     protected double[] hiddenLayerPostActivation;
     protected double outputPostActivation;
 
+    // input layer values for the example being computed (features, then the bias input
+    // if there is one) and the number of those that are features
+    private double[] inputs;
+    private int numFeatures;
+
+    // scratch space for the output weights before a backpropagation update
+    private double[] prevOutputWeights;
+
     /**
      * Initialize a two layer NN with a default eta value of 0.1, iteration
      * value of 200, tanh activation, including bias, and the number of hidden
@@ -66,16 +79,13 @@ public class TwoLayerNN implements Classifier {
     @Override
     @SuppressWarnings("unchecked")
     public void train(DataSet data) {
-        // determine whether we need to generate a dataset with bias feature
-        DataSet dataToTrain = this.includeBias ? data.getCopyWithBias() : data;
-
-        // init network weights and hidden values
-        int featureCount = dataToTrain.getFeatureMap().size();
-        initializeWeights(featureCount);
+        // init network weights, inputs (with a bias input if needed) and hidden values
+        initializeInputs(data.getNumFeatures());
+        initializeWeights(this.inputs.length);
         initializeHiddenValues(); // comment for handout example
 
         // get data
-        ArrayList<Example> training = (ArrayList<Example>)dataToTrain.getData().clone();
+        ArrayList<Example> training = (ArrayList<Example>)data.getData().clone();
 
         // loop through iterations
         for (int i = 0; i < this.iterations; i++) {
@@ -123,6 +133,22 @@ public class TwoLayerNN implements Classifier {
         }
     }
 
+    /**
+     * Set up the input layer for examples with numFeatures features, plus the bias input
+     * if the network includes a bias.
+     *
+     * @param numFeatures
+     */
+    private void initializeInputs(int numFeatures) {
+        this.numFeatures = numFeatures;
+        this.inputs = new double[this.includeBias ? numFeatures + 1 : numFeatures];
+
+        // the bias input never changes
+        if (this.includeBias) {
+            this.inputs[numFeatures] = 1.0;
+        }
+    }
+
     /**
      * Initialize the network's hidden node values based on the desired number
      * of hidden nodes. Include a hard-coded bias of 1 if specified.
@@ -138,6 +164,7 @@ public class TwoLayerNN implements Classifier {
         // init hidden layer value array to all 0's
         this.hiddenLayerPreActivation = new double[biasValue];
         this.hiddenLayerPostActivation = new double[biasValue];
+        this.prevOutputWeights = new double[biasValue];
 
         // if using bias, set final array value to 1
         if (this.includeBias) {
@@ -154,7 +181,7 @@ public class TwoLayerNN implements Classifier {
      */
     private void forwardCompute(Example e) {
         // get feature array from example
-        double[] featureValues = getFeatureArray(e);
+        double[] featureValues = setInputs(e);
 
         // first layer calculation loop; use num hidden nodes since it won't overwrite
         // bias value if it's included
@@ -183,8 +210,8 @@ public class TwoLayerNN implements Classifier {
      * output of the network for a given example.
      */
     private void backpropagation(Example e) {
-        // set up array to hold prev output weights
-        double[] prevOutputWeights = new double[this.outputWeights.length];
+        // array to hold prev output weights
+        double[] prevOutputWeights = this.prevOutputWeights;
 
         // get label and prediction
         double labelMinusPrediction = e.getLabel() - this.outputPostActivation;
@@ -213,8 +240,8 @@ public class TwoLayerNN implements Classifier {
 
             // loop through each weight respective to a node
             for (int j = 0; j < currRow.length; j++) {
-                // get feature j from example x
-                double xj = e.getFeature(j);
+                // get input j (feature j from example x, or the bias), as set by forwardCompute
+                double xj = this.inputs[j];
 
                 // weight update: wkj = wkj + (eta * xj * f'(wk . x) * vk (pre-update) * f'(v . h) * (label - prediction))
                 currRow[j] += this.eta * xj * wkDotXDerivative * vk * vDotHDerivative * labelMinusPrediction;
@@ -230,16 +257,13 @@ public class TwoLayerNN implements Classifier {
      */
     @Override
     public double classify(Example example) {
-        // create copy example to classify
-        Example exampleToClassify = addExampleBias(example);
-
         // set threshold/min value depending on tanh or sigmnoid activation
         double maxLabel = 1.0;
         double minLabel = this.activationFxn == TANH_ACTIVATION ? -1.0 : 0.0;
         double threshold = this.activationFxn == TANH_ACTIVATION ? 0.0 : 0.5;
 
         // compute and classify
-        forwardCompute(exampleToClassify);
+        forwardCompute(example);
         return this.outputPostActivation > threshold ? maxLabel : minLabel;
     }
 
@@ -253,32 +277,10 @@ public class TwoLayerNN implements Classifier {
      */
     @Override
     public double confidence(Example example) {
-        // create copy example to classify
-        Example exampleToClassify = addExampleBias(example);
-
-        forwardCompute(exampleToClassify);
+        forwardCompute(example);
         return Math.abs(this.outputPostActivation);
     }
 
-    /**
-     * A helper method for adding bias to an example if necessary before classifying or calculating
-     * confidence.
-     *
-     * @param e
-     * @return
-     */
-    private Example addExampleBias(Example e) {
-        // create copy example to classify
-        Example exampleToAddBias = new Example(e);
-
-        // add bias if necessary
-        if (this.includeBias && exampleToAddBias.getFeatureSet().size() != this.hiddenWeights[0].length) {
-            exampleToAddBias.addFeature(exampleToAddBias.getFeatureSet().size(), 1.0);
-        }
-
-        return exampleToAddBias;
-    }
-
     /**
      * A helper fxn for calculating the specified activation fxn's result for a given input.
      *
@@ -372,24 +374,25 @@ public class TwoLayerNN implements Classifier {
     }
 
     /**
-     * Generate an array of doubles representing an example's feature values
+     * Fill the input layer with an example's feature values.  The bias input (if any)
+     * stays at 1 and features the network wasn't trained on are ignored.
      *
      * @param e
-     * @return a double array containing an examples features
+     * @return the input layer values
      */
-    private static double[] getFeatureArray(Example e) {
-        // get feature count
-        int featureCount = e.getFeatureSet().size();
-
-        // init feature array
-        double[] featureArray = new double[featureCount];
+    private double[] setInputs(Example e) {
+        Arrays.fill(this.inputs, 0, this.numFeatures, 0.0);
 
         // set array vals
-        for (int i = 0; i < featureCount; i++) {
-            featureArray[i] = e.getFeature(i);
+        for (int pos = 0; pos < e.getNumFeatures(); pos++) {
+            int featureIndex = e.getFeatureIndexAt(pos);
+
+            if (featureIndex < this.numFeatures) {
+                this.inputs[featureIndex] = e.getFeatureValueAt(pos);
+            }
         }
 
-        return featureArray;
+        return this.inputs;
     }
 
     /**
@@ -415,16 +418,13 @@ public class TwoLayerNN implements Classifier {
      */
     @SuppressWarnings("unchecked")
     public void train(DataSet dataTrain, DataSet dataTest) {
-        // determine whether we need to generate a dataset with bias feature
-        DataSet dataToTrain = this.includeBias ? dataTrain.getCopyWithBias() : dataTrain;
-
-        // init network weights and hidden values
-        int featureCount = dataToTrain.getFeatureMap().size();
-        initializeWeights(featureCount);
+        // init network weights, inputs (with a bias input if needed) and hidden values
+        initializeInputs(dataTrain.getNumFeatures());
+        initializeWeights(this.inputs.length);
         initializeHiddenValues(); // comment for handout example
 
         // get data
-        ArrayList<Example> training = (ArrayList<Example>)dataToTrain.getData().clone();
+        ArrayList<Example> training = (ArrayList<Example>)dataTrain.getData().clone();
 
         /* NEW CODE START */
         System.out.println("iteration,sumSquaredError,trainAccuracy,TestAccuracy");
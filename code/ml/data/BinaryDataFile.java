@@ -0,0 +1,307 @@
+package ml.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * A compact binary file format for already parsed data sets, so that large data sets
+ * don't have to be re-parsed from CSV/text every run.  Loading memory-maps the file and
+ * bulk-copies the arrays out of it; nothing is parsed.
+ *
+ * Layout (little-endian):
+ *   int magic, int version, int storage type (DENSE or SPARSE), int numRows,
+ *   int numFeatures (DataSet.getNumFeatures), int numColumns (dense) or nnz (sparse),
+ *   int feature map size, then per feature: int index, int name length, UTF-8 name bytes
+ *   zero padding to a multiple of 8 bytes
+ *   double[numRows] labels
+ *   dense:  double[numRows*numColumns] row-major values
+ *   sparse: int[numRows+1] rowPtr, int[nnz] colIdx, padding to 8 bytes, double[nnz] values
+ *
+ * Use DataSet(filename, DataSet.BINARYFILE) to load one and write (or main) to create one.
+ */
+public class BinaryDataFile {
+	private static final int MAGIC = 0x4D4C4453; // "MLDS"
+	private static final int VERSION = 1;
+	private static final int DENSE = 0;
+	private static final int SPARSE = 1;
+
+	// map large arrays in windows of at most this many bytes
+	private static final long MAP_WINDOW = 1L << 30;
+
+	private final String filename;
+	private DataStorage storage;
+	private HashMap<Integer, String> featureMap;
+	private int numFeatures;
+
+	/**
+	 * @param filename the binary file to read
+	 */
+	public BinaryDataFile(String filename){
+		this.filename = filename;
+	}
+
+	/**
+	 * Load the file.
+	 *
+	 * @return the examples in the file
+	 * @throws IOException
+	 */
+	public DataStorage read() throws IOException{
+		try( FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ) ){
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), MAP_WINDOW));
+			header.order(ByteOrder.LITTLE_ENDIAN);
+
+			if( channel.size() < 28 || header.getInt() != MAGIC ){
+				throw new IOException(filename + " is not a binary data file");
+			}
+
+			int version = header.getInt();
+
+			if( version != VERSION ){
+				throw new IOException("Unsupported binary data file version " + version + " in " + filename);
+			}
+
+			int type = header.getInt();
+			int numRows = header.getInt();
+			numFeatures = header.getInt();
+			int size = header.getInt();
+			int mapSize = header.getInt();
+
+			featureMap = new HashMap<Integer, String>();
+
+			for( int i = 0; i < mapSize; i++ ){
+				int index = header.getInt();
+				byte[] name = new byte[header.getInt()];
+				header.get(name);
+				featureMap.put(index, new String(name, StandardCharsets.UTF_8));
+			}
+
+			long position = align(header.position());
+			double[] labels = readDoubles(channel, position, numRows);
+			position += 8L*numRows;
+
+			if( type == DENSE ){
+				double[] values = readDoubles(channel, position, (long)numRows*size);
+				storage = new DenseStorage(size, values, labels);
+			}else if( type == SPARSE ){
+				int[] rowPtr = readInts(channel, position, numRows+1);
+				position += 4L*(numRows+1);
+				int[] colIdx = readInts(channel, position, size);
+				position = align(position + 4L*size);
+				double[] values = readDoubles(channel, position, size);
+				storage = new SparseStorage(rowPtr, colIdx, values, labels);
+			}else{
+				throw new IOException("Unknown storage type " + type + " in " + filename);
+			}
+
+			return storage;
+		}
+	}
+
+	/**
+	 * Get the mapping from feature indices to names.  Only valid after read.
+	 *
+	 * @return feature map
+	 */
+	public HashMap<Integer, String> getFeatureMap(){
+		return featureMap;
+	}
+
+	/**
+	 * Get the number of feature indices (see DataSet.getNumFeatures).  Only valid after read.
+	 *
+	 * @return the number of feature indices
+	 */
+	public int getNumFeatures(){
+		return numFeatures;
+	}
+
+	/**
+	 * Write data to filename in the binary format.  Data sets backed by dense storage are
+	 * written densely, everything else is written as CSR.
+	 *
+	 * @param data
+	 * @param filename
+	 * @throws IOException
+	 */
+	public static void write(DataSet data, String filename) throws IOException{
+		DataStorage rows = data.getStorage();
+
+		if( rows == null ){
+			rows = SparseStorage.fromExamples(data.getData());
+		}
+
+		try( FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE) ){
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+			boolean dense = rows instanceof DenseStorage;
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(dense ? DENSE : SPARSE);
+			buffer.putInt(rows.getNumRows());
+			buffer.putInt(data.getNumFeatures());
+			buffer.putInt(dense ? ((DenseStorage)rows).getNumColumns() : ((SparseStorage)rows).getNumNonZero());
+
+			HashMap<Integer, String> features = data.getFeatureMap();
+			ArrayList<Integer> indices = new ArrayList<Integer>(features.keySet());
+			Collections.sort(indices);
+			buffer.putInt(indices.size());
+			long written = 0;
+
+			for( int index: indices ){
+				byte[] name = features.get(index).getBytes(StandardCharsets.UTF_8);
+				written += flushIfFull(channel, buffer, 8 + name.length);
+				buffer.putInt(index);
+				buffer.putInt(name.length);
+				buffer.put(name);
+			}
+
+			while( (written + buffer.position()) % 8 != 0 ){
+				buffer.put((byte)0);
+			}
+
+			writeDoubles(channel, buffer, rows.getLabelArray(), rows.getNumRows());
+
+			if( dense ){
+				DenseStorage denseRows = (DenseStorage)rows;
+				writeDoubles(channel, buffer, denseRows.getRowMajor(), denseRows.getRowMajor().length);
+			}else{
+				SparseStorage sparseRows = (SparseStorage)rows;
+				int nnz = sparseRows.getNumNonZero();
+				writeInts(channel, buffer, sparseRows.getRowPtr(), rows.getNumRows()+1);
+				writeInts(channel, buffer, sparseRows.getColIdx(), nnz);
+
+				if( (rows.getNumRows()+1+nnz) % 2 != 0 ){
+					buffer.putInt(0);
+				}
+
+				writeDoubles(channel, buffer, sparseRows.getValues(), nnz);
+			}
+
+			flush(channel, buffer);
+		}
+	}
+
+	/**
+	 * Parse a CSV or text file and write it in the binary format.
+	 *
+	 * @param input the file to convert
+	 * @param fileType DataSet.CSVFILE or DataSet.TEXTFILE
+	 * @param output where to write the binary file
+	 * @throws IOException
+	 */
+	public static void convert(String input, int fileType, String output) throws IOException{
+		write(new DataSet(input, fileType), output);
+	}
+
+	private static long align(long position){
+		return (position + 7) & ~7L;
+	}
+
+	private static double[] readDoubles(FileChannel channel, long position, long count) throws IOException{
+		double[] result = new double[Math.toIntExact(count)];
+		int done = 0;
+
+		while( done < count ){
+			int n = (int)Math.min(count-done, MAP_WINDOW/8);
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position + 8L*done, 8L*n);
+			window.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(result, done, n);
+			done += n;
+		}
+
+		return result;
+	}
+
+	private static int[] readInts(FileChannel channel, long position, long count) throws IOException{
+		int[] result = new int[Math.toIntExact(count)];
+		int done = 0;
+
+		while( done < count ){
+			int n = (int)Math.min(count-done, MAP_WINDOW/4);
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position + 4L*done, 4L*n);
+			window.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(result, done, n);
+			done += n;
+		}
+
+		return result;
+	}
+
+	private static void writeDoubles(FileChannel channel, ByteBuffer buffer, double[] values, int count) throws IOException{
+		int done = 0;
+
+		while( done < count ){
+			flushIfFull(channel, buffer, 8);
+			int n = Math.min(count-done, buffer.remaining()/8);
+			buffer.asDoubleBuffer().put(values, done, n);
+			buffer.position(buffer.position() + 8*n);
+			done += n;
+		}
+	}
+
+	private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values, int count) throws IOException{
+		int done = 0;
+
+		while( done < count ){
+			flushIfFull(channel, buffer, 4);
+			int n = Math.min(count-done, buffer.remaining()/4);
+			buffer.asIntBuffer().put(values, done, n);
+			buffer.position(buffer.position() + 4*n);
+			done += n;
+		}
+	}
+
+	/**
+	 * Make sure there's room for needed more bytes in buffer.
+	 *
+	 * @return how many bytes were written out to make room
+	 */
+	private static long flushIfFull(FileChannel channel, ByteBuffer buffer, int needed) throws IOException{
+		if( buffer.remaining() >= needed ){
+			return 0;
+		}
+
+		if( needed > buffer.capacity() ){
+			throw new IOException("Feature name too long to write: " + needed + " bytes");
+		}
+
+		return flush(channel, buffer);
+	}
+
+	private static long flush(FileChannel channel, ByteBuffer buffer) throws IOException{
+		buffer.flip();
+		long written = buffer.remaining();
+
+		while( buffer.hasRemaining() ){
+			channel.write(buffer);
+		}
+
+		buffer.clear();
+		return written;
+	}
+
+	/**
+	 * Convert a CSV or text file to the binary format.
+	 *
+	 * @param args input file, "csv" or "text", output file
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException{
+		if( args.length != 3 ){
+			System.err.println("usage: BinaryDataFile <input> csv|text <output>");
+			return;
+		}
+
+		int fileType = args[1].equals("csv") ? DataSet.CSVFILE : DataSet.TEXTFILE;
+		convert(args[0], fileType, args[2]);
+	}
+}
@@ -0,0 +1,510 @@
+package ml.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A parser that reads numeric CSV files straight into DenseStorage.
+ *
+ * The file is read in blocks from a FileChannel and every field is parsed as a number
+ * directly from the bytes, so no String is created per line or per field.  The file has
+ * the same format that DataSet expects for CSVFILE: optional lines starting with # at the
+ * beginning, a header line with the column names and then one example per line with the
+ * label in the last column.  Blank lines are skipped.
+ *
+ * Large files are split into line-aligned byte ranges that are parsed in parallel and
+ * then concatenated in file order, so the rows come out in the same order as a serial read.
+ */
+public class CSVByteParser {
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	// powers of ten that are exactly representable as doubles
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private final String filename;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private String[] headers;
+	private int numRows;
+	private long parseNanos;
+
+	/**
+	 * @param filename the CSV file to parse
+	 */
+	public CSVByteParser(String filename){
+		this.filename = filename;
+	}
+
+	/**
+	 * Parse the whole file.
+	 *
+	 * @return the examples in the file with the last column as the label
+	 * @throws IOException
+	 */
+	public DenseStorage parse() throws IOException{
+		long start = System.nanoTime();
+
+		try( FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ) ){
+			long dataStart = readHeader(channel);
+			int numColumns = headers.length-1;
+
+			long[] bounds = FileChunks.split(channel, dataStart, channel.size(), numThreads);
+			List<RowBuffer> chunks = FileChunks.parseAll(bounds, numThreads, (rangeStart, rangeEnd) -> {
+				RowBuffer rows = new RowBuffer(numColumns);
+				parseRange(channel, rangeStart, rangeEnd, rows);
+				return rows;
+			});
+
+			DenseStorage storage = RowBuffer.concatenate(numColumns, chunks);
+			numRows = storage.getNumRows();
+			parseNanos = System.nanoTime()-start;
+
+			return storage;
+		}
+	}
+
+	/**
+	 * Set how many threads to use when parsing.  Defaults to the number of processors.
+	 *
+	 * @param numThreads
+	 */
+	public void setNumThreads(int numThreads){
+		if( numThreads <= 0 ){
+			throw new IllegalArgumentException("expected a positive thread count; received " + numThreads);
+		}
+
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Get the column names from the header, including the label column.
+	 * Only valid after parse has been called.
+	 *
+	 * @return the column names
+	 */
+	public String[] getHeaders(){
+		return headers;
+	}
+
+	/**
+	 * @return the number of rows read by the last call to parse
+	 */
+	public int getNumRows(){
+		return numRows;
+	}
+
+	/**
+	 * @return how fast the last call to parse read rows, in rows per second
+	 */
+	public double getRowsPerSecond(){
+		return parseNanos == 0 ? 0 : numRows/(parseNanos/1e9);
+	}
+
+	/**
+	 * Skip the comment lines, read the header line and figure out where the data starts.
+	 *
+	 * @param channel
+	 * @return the file position of the first byte after the header line
+	 * @throws IOException
+	 */
+	private long readHeader(FileChannel channel) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(64*1024);
+		byte[] line = new byte[256];
+		int lineLength = 0;
+		long position = 0;
+
+		while( true ){
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			int end = read < 0 ? 0 : read;
+			byte[] bytes = buffer.array();
+
+			for( int i = 0; i < end; i++ ){
+				byte b = bytes[i];
+				position++;
+
+				if( b == '\n' ){
+					String header = headerLine(line, lineLength);
+
+					if( header != null ){
+						headers = header.split(",");
+						return position;
+					}
+
+					lineLength = 0;
+				}else{
+					if( lineLength == line.length ){
+						line = Arrays.copyOf(line, line.length*2);
+					}
+
+					line[lineLength++] = b;
+				}
+			}
+
+			if( read < 0 ){
+				String header = headerLine(line, lineLength);
+
+				if( header == null ){
+					throw new IOException("No header line found in " + filename);
+				}
+
+				headers = header.split(",");
+				return position;
+			}
+		}
+	}
+
+	/**
+	 * Decode a candidate header line.
+	 *
+	 * @param line
+	 * @param length
+	 * @return the header, or null if the line is a comment or blank
+	 */
+	private static String headerLine(byte[] line, int length){
+		String header = new String(line, 0, length, StandardCharsets.UTF_8);
+
+		// drop a byte order mark and the carriage return of windows line endings
+		if( header.startsWith("\uFEFF") ){
+			header = header.substring(1);
+		}
+
+		if( header.endsWith("\r") ){
+			header = header.substring(0, header.length()-1);
+		}
+
+		return header.startsWith("#") || header.trim().isEmpty() ? null : header;
+	}
+
+	/**
+	 * Parse all of the lines between the file positions start and end.  start must be
+	 * the beginning of a line and end must be the end of a line or the end of the file.
+	 *
+	 * @param channel
+	 * @param start
+	 * @param end
+	 * @param rows where to put the parsed rows
+	 * @throws IOException
+	 */
+	static void parseRange(FileChannel channel, long start, long end, RowBuffer rows) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+		long position = start;
+
+		while( position < end ){
+			int toRead = (int)Math.min(buffer.remaining(), end-position);
+			buffer.limit(buffer.position()+toRead);
+			int read = channel.read(buffer, position);
+
+			if( read <= 0 ){
+				break;
+			}
+
+			position += read;
+
+			byte[] bytes = buffer.array();
+			int length = buffer.position();
+			boolean lastBlock = position >= end;
+			int consumed = parseLines(bytes, length, lastBlock, rows);
+
+			// move the partial line at the end of the block to the front
+			System.arraycopy(bytes, consumed, bytes, 0, length-consumed);
+			buffer.clear();
+			buffer.position(length-consumed);
+
+			if( !lastBlock && consumed == 0 && buffer.remaining() == 0 ){
+				// a single line bigger than the buffer
+				ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity()*2);
+				bigger.put(bytes, 0, length);
+				buffer = bigger;
+			}
+		}
+
+		// the file ended early, so whatever is left is the last line
+		if( buffer.position() > 0 ){
+			parseLines(buffer.array(), buffer.position(), true, rows);
+		}
+	}
+
+	/**
+	 * Parse the complete lines in bytes[0, length).
+	 *
+	 * @param bytes
+	 * @param length
+	 * @param atEnd whether there is no more data after these bytes, i.e. the last line
+	 * is complete even without a trailing newline
+	 * @param rows
+	 * @return how many bytes were consumed
+	 */
+	private static int parseLines(byte[] bytes, int length, boolean atEnd, RowBuffer rows){
+		int lineStart = 0;
+
+		for( int i = 0; i < length; i++ ){
+			if( bytes[i] == '\n' ){
+				parseLine(bytes, lineStart, i, rows);
+				lineStart = i+1;
+			}
+		}
+
+		if( atEnd && lineStart < length ){
+			parseLine(bytes, lineStart, length, rows);
+			lineStart = length;
+		}
+
+		return lineStart;
+	}
+
+	/**
+	 * Parse one line, bytes[start, end), as a row.  Blank lines and comments are skipped.
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @param rows
+	 */
+	private static void parseLine(byte[] bytes, int start, int end, RowBuffer rows){
+		if( end > start && bytes[end-1] == '\r' ){
+			end--;
+		}
+
+		if( end == start || bytes[start] == '#' ){
+			return;
+		}
+
+		// like String.split, trailing empty fields are ignored
+		while( end > start && bytes[end-1] == ',' ){
+			end--;
+		}
+
+		double[] row = rows.startRow();
+		int numFields = rows.numColumns+1;
+		int field = 0;
+		int fieldStart = start;
+
+		for( int i = start; i <= end; i++ ){
+			if( i == end || bytes[i] == ',' ){
+				if( field >= numFields ){
+					throw new NumberFormatException("Expected " + numFields + " fields but found more in: " +
+							new String(bytes, start, end-start, StandardCharsets.UTF_8));
+				}
+
+				row[field++] = parseDouble(bytes, fieldStart, i);
+				fieldStart = i+1;
+			}
+		}
+
+		if( field != numFields ){
+			throw new NumberFormatException("Expected " + numFields + " fields but found " + field + " in: " +
+					new String(bytes, start, end-start, StandardCharsets.UTF_8));
+		}
+
+		rows.finishRow();
+	}
+
+	/**
+	 * Parse the number in bytes[start, end).  Plain decimal numbers (optionally with an
+	 * exponent) are parsed in place; anything else falls back to Double.parseDouble.
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @return the number
+	 */
+	static double parseDouble(byte[] bytes, int start, int end){
+		int i = start;
+
+		while( i < end && (bytes[i] == ' ' || bytes[i] == '\t') ){
+			i++;
+		}
+
+		while( end > i && (bytes[end-1] == ' ' || bytes[end-1] == '\t') ){
+			end--;
+		}
+
+		boolean negative = false;
+
+		if( i < end && (bytes[i] == '-' || bytes[i] == '+') ){
+			negative = bytes[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+
+		for( ; i < end; i++ ){
+			byte b = bytes[i];
+
+			if( b >= '0' && b <= '9' ){
+				seenDigit = true;
+
+				if( digits < 18 ){
+					mantissa = mantissa*10 + (b-'0');
+
+					if( mantissa != 0 ){
+						digits++;
+					}
+
+					if( seenPoint ){
+						exponent--;
+					}
+				}else{
+					// too many significant digits to parse exactly here
+					return fallbackParse(bytes, start, end);
+				}
+			}else if( b == '.' && !seenPoint ){
+				seenPoint = true;
+			}else{
+				break;
+			}
+		}
+
+		if( !seenDigit ){
+			return fallbackParse(bytes, start, end);
+		}
+
+		if( i < end ){
+			if( bytes[i] != 'e' && bytes[i] != 'E' ){
+				return fallbackParse(bytes, start, end);
+			}
+
+			i++;
+			boolean negativeExponent = false;
+
+			if( i < end && (bytes[i] == '-' || bytes[i] == '+') ){
+				negativeExponent = bytes[i] == '-';
+				i++;
+			}
+
+			if( i == end ){
+				return fallbackParse(bytes, start, end);
+			}
+
+			int exp = 0;
+
+			for( ; i < end; i++ ){
+				byte b = bytes[i];
+
+				if( b < '0' || b > '9' || exp > 1000 ){
+					return fallbackParse(bytes, start, end);
+				}
+
+				exp = exp*10 + (b-'0');
+			}
+
+			exponent += negativeExponent ? -exp : exp;
+		}
+
+		// both the mantissa and the power of ten are exact doubles, so one multiply
+		// or divide gives the correctly rounded result
+		double value;
+
+		if( mantissa == 0 ){
+			value = 0.0;
+		}else if( mantissa < (1L << 53) && exponent >= -22 && exponent <= 22 ){
+			value = exponent < 0 ? mantissa/POWERS_OF_TEN[-exponent] : mantissa*POWERS_OF_TEN[exponent];
+		}else{
+			return fallbackParse(bytes, start, end);
+		}
+
+		return negative ? -value : value;
+	}
+
+	private static double fallbackParse(byte[] bytes, int start, int end){
+		return Double.parseDouble(new String(bytes, start, end-start, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Growable row-major buffer that parsed rows are written into.  The label
+	 * (last field) of each row is split out into its own array.
+	 */
+	static class RowBuffer {
+		private final int numColumns;
+		private final double[] row;
+		private double[] values;
+		private double[] labels;
+		private int numRows = 0;
+
+		RowBuffer(int numColumns){
+			this.numColumns = numColumns;
+			this.row = new double[numColumns+1];
+			this.values = new double[numColumns*1024];
+			this.labels = new double[1024];
+		}
+
+		/**
+		 * @return scratch space for the fields of the next row
+		 */
+		double[] startRow(){
+			return row;
+		}
+
+		/**
+		 * Copy the fields in the scratch row into the buffer.
+		 */
+		void finishRow(){
+			if( numRows == labels.length ){
+				labels = Arrays.copyOf(labels, labels.length*2);
+				values = Arrays.copyOf(values, labels.length*numColumns);
+			}
+
+			System.arraycopy(row, 0, values, numRows*numColumns, numColumns);
+			labels[numRows] = row[numColumns];
+			numRows++;
+		}
+
+		int getNumRows(){
+			return numRows;
+		}
+
+		/**
+		 * Join the rows of several buffers, in order, into one DenseStorage.
+		 *
+		 * @param numColumns
+		 * @param buffers
+		 * @return the storage
+		 */
+		static DenseStorage concatenate(int numColumns, List<RowBuffer> buffers){
+			int totalRows = 0;
+
+			for( RowBuffer buffer: buffers ){
+				totalRows += buffer.numRows;
+			}
+
+			double[] values = new double[totalRows*numColumns];
+			double[] labels = new double[totalRows];
+			int row = 0;
+
+			for( RowBuffer buffer: buffers ){
+				System.arraycopy(buffer.values, 0, values, row*numColumns, buffer.numRows*numColumns);
+				System.arraycopy(buffer.labels, 0, labels, row, buffer.numRows);
+				row += buffer.numRows;
+			}
+
+			return new DenseStorage(numColumns, values, labels);
+		}
+	}
+
+	/**
+	 * Parse a CSV file and report how long it took.
+	 *
+	 * @param args the CSV file to parse
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException{
+		CSVByteParser parser = new CSVByteParser(args[0]);
+		parser.parse();
+
+		System.out.println("Rows: " + parser.getNumRows());
+		System.out.println("Rows/sec: " + parser.getRowsPerSecond());
+	}
+}
@@ -42,11 +42,11 @@ public class CSVDataReader implements Iterator<Example>{
 		Example data = null;
 		
 		if( hasNext() ){
-			data = new Example();
-			
 			// parse the line
 			String[] parts = nextLine.split(",");
 			
+			data = new Example(parts.length-1);
+			
 			data.setLabel(Double.parseDouble(parts[labelIndex]));
 	
 			int featureIndex = 0;
@@ -1,12 +1,17 @@
 package ml.data;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Random;
 
 /**
  * Data set for storing and retrieving an n-fold cross validation data set.
  * 
+ * The order of the examples (shuffled, if randomized) is picked once when the
+ * cross validation set is created, so every call to getValidationSet sees the same
+ * folds.  The train and test sets of a split are views of the original data set and
+ * don't copy any examples until their data is actually asked for.  Each split is only
+ * created once, so asking for the same split again returns the same DataSetSplit (which
+ * lets PreprocessingPipeline reuse its work).
+ * 
  * @author dkauchak
  *
  */
@@ -14,6 +19,8 @@ public class CrossValidationSet {
 	private DataSet dataset;
 	private int numSplits;
 	private boolean randomize = false;
+	private int[] order; // the order of the examples that the splits are taken from
+	private DataSetSplit[] splits; // the splits created so far
 	
 	/**
 	 * Generate a cross-validation with numSplits on dataset
@@ -22,8 +29,7 @@ public class CrossValidationSet {
 	 * @param numSplits the number of splits for the data set
 	 */
 	public CrossValidationSet(DataSet dataset, int numSplits){
-		this.dataset = dataset;
-		this.numSplits = numSplits;
+		this(dataset, numSplits, false);
 	}
 	
 	/**
@@ -37,6 +43,26 @@ public class CrossValidationSet {
 		this.dataset = dataset;
 		this.numSplits = numSplits;
 		this.randomize = randomize;
+		splits = new DataSetSplit[Math.max(numSplits, 0)];
+		
+		int size = dataset.getData().size();
+		order = new int[size];
+		
+		for( int i = 0; i < size; i++ ){
+			order[i] = i;
+		}
+		
+		if( randomize ){
+			// same as Collections.shuffle
+			Random rand = new Random(System.nanoTime());
+			
+			for( int i = size-1; i > 0; i-- ){
+				int j = rand.nextInt(i+1);
+				int temp = order[i];
+				order[i] = order[j];
+				order[j] = temp;
+			}
+		}
 	}
 	
 	/**
@@ -55,37 +81,22 @@ public class CrossValidationSet {
 	 * @param splitNum the split number requested
 	 * @return
 	 */
-	public DataSetSplit getValidationSet(int splitNum){
+	public synchronized DataSetSplit getValidationSet(int splitNum){
 		if( splitNum >= numSplits || splitNum < 0){
 			return null;
+		}else if( splits[splitNum] != null ){
+			return splits[splitNum];
 		}else{
-			ArrayList<Example> data;
-			
-			if( randomize ){
-				data = (ArrayList<Example>)dataset.getData().clone();
-				Collections.shuffle(data, new Random(System.nanoTime()));
-			}else{
-				data = dataset.getData();
-			}
-			
 			// this tends to make the last split more off-sized, but it will suffice
-			int partSize = (int)(data.size()/numSplits);
+			int partSize = (int)(order.length/numSplits);
 			int begin = partSize*splitNum;
-			int end = splitNum == numSplits-1 ? data.size() : partSize*(splitNum+1);
-			
-			DataSet train = new DataSet(dataset.getFeatureMap());
-			DataSet test = new DataSet(dataset.getFeatureMap());
+			int end = splitNum == numSplits-1 ? order.length : partSize*(splitNum+1);
 			
-			for( int i = 0; i < data.size(); i++ ){
-				// check if we're in the test range
-				if( i >= begin && i < end ){
-					test.addData(data.get(i));
-				}else{
-					train.addData(data.get(i));
-				}
-			}
+			DataSet train = new DataSet(dataset, order, begin, end, true);
+			DataSet test = new DataSet(dataset, order, begin, end, false);
 			
-			return new DataSetSplit(train, test);
+			splits[splitNum] = new DataSetSplit(train, test);
+			return splits[splitNum];
 		}
 	}
-}
+}
\ No newline at end of file
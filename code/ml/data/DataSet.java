@@ -1,13 +1,10 @@
 package ml.data;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
@@ -23,13 +20,32 @@ public class DataSet {
 	private HashMap<Integer, String> featureMap = new HashMap<Integer, String>();
 	private HashSet<Double> labels = new HashSet<Double>();
 
+	// the labels as dense class ids (see getEncodedLabels); computed when first needed
+	private LabelDictionary labelDictionary;
+	private int[] encodedLabels;
+
 	// some constants for different file types
 	public static final int CSVFILE = 0;
 	public static final int TEXTFILE = 1;
+	public static final int BINARYFILE = 2; // see BinaryDataFile
 
 	private int featureIndex;
 	private int biasFeature = -1;
 
+	// contiguous storage backing the examples in data, if there is one
+	private DataStorage storage;
+
+	// if this data set is a view of another one's examples (see CrossValidationSet), the
+	// examples are viewSource's examples viewOrder[viewBegin..viewEnd) or, if viewExcludes,
+	// every example in viewOrder *except* those.  They're only collected into data (and
+	// labels) the first time they're needed.  Views are shared between threads (e.g. the
+	// folds of a CrossValidationSet), so viewSource is only cleared once data is complete.
+	private volatile DataSet viewSource;
+	private int[] viewOrder;
+	private int viewBegin;
+	private int viewEnd;
+	private boolean viewExcludes;
+
 	/**
 	 * Create a new data set.
 	 *
@@ -37,53 +53,152 @@ public class DataSet {
 	 * @param fileType what type of file, using the class defined constants (e.g. CSVFILE)
 	 */
 	public DataSet(String filename, int fileType){
-		if( fileType == CSVFILE ){
-			// figure out how many columns there are then call
-			try {
-				BufferedReader in = new BufferedReader(new FileReader(filename));
+		// parsed CSV and text files are cached on disk; see DataSetCache
+		DataSetCache.Entry cacheEntry = null;
 
-				// ignore any lines at the beginning that start with #
-				String line = in.readLine();
+		if( fileType == CSVFILE || fileType == TEXTFILE ){
+			cacheEntry = getCacheEntry(filename, fileType);
 
-				while( line.startsWith("#")){
-					line = in.readLine();
-				}
+			if( cacheEntry != null && loadCached(cacheEntry) ){
+				return;
+			}
+		}
 
-				// parse the headers
-				String[] headers = line.split(",");
-				int labelIndex = headers.length-1;
+		if( fileType == CSVFILE ){
+			try {
+				// every row of a CSV file has every column, so parse it straight into dense storage
+				CSVByteParser parser = new CSVByteParser(filename);
+				DenseStorage dense = parser.parse();
+
+				// the label is the last column, the rest are the features
+				String[] headers = parser.getHeaders();
 				featureIndex = 0;
 
-				for( int i = 0; i < headers.length; i++ ){
-					if( i != labelIndex ){
-						featureMap.put(featureIndex, headers[i]);
-						featureIndex++;
-					}
+				for( int i = 0; i < headers.length-1; i++ ){
+					featureMap.put(featureIndex, headers[i]);
+					featureIndex++;
 				}
 
-				CSVDataReader reader = new CSVDataReader(in, labelIndex);
-				initialize(reader);
+				initialize(dense);
 			} catch (IOException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
 		}else if( fileType == TEXTFILE ){
-			TextDataReader reader = new TextDataReader(filename);
-			initialize(reader);
-			featureMap = reader.getFeatureMap();
+			try {
+				// text examples only have a handful of the words, so read them straight into
+				// CSR storage rather than keeping an array pair per example
+				TextFileParser parser = new TextFileParser(filename);
+				initialize(parser.parse());
+				featureMap = parser.getFeatureMap();
+				featureIndex = parser.getNumFeatures();
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}else if( fileType == BINARYFILE ){
+			try {
+				BinaryDataFile file = new BinaryDataFile(filename);
+				initialize(file.read());
+				featureMap = file.getFeatureMap();
+				featureIndex = file.getNumFeatures();
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+
+		if( cacheEntry != null && storage != null ){
+			try {
+				cacheEntry.store(this);
+			} catch (IOException e) {
+				// the cache is only an optimization; the data set is still fine
+			}
+		}
+	}
+
+	/**
+	 * @param filename
+	 * @param fileType
+	 * @return the cache entry for filename, or null if caching is off or fails
+	 */
+	private static DataSetCache.Entry getCacheEntry(String filename, int fileType){
+		DataSetCache cache = DataSetCache.getDefault();
+
+		try {
+			return cache == null ? null : cache.getEntry(filename, fileType);
+		} catch (IOException e) {
+			// e.g. the file doesn't exist; parsing will report it
+			return null;
 		}
 	}
 
 	/**
-	 * Read all of the data from the reader and populate this dataset.
+	 * Populate this data set from a cached copy.  If the copy can't be read, this data
+	 * set is left empty.
 	 *
-	 * @param reader
+	 * @param entry
+	 * @return whether the cached copy was loaded
 	 */
-	private void initialize(Iterator<Example> reader){
-		while( reader.hasNext()){
-			Example next = reader.next();
-			data.add(next);
-			labels.add(next.getLabel());
+	private boolean loadCached(DataSetCache.Entry entry){
+		BinaryDataFile file = entry.open();
+
+		if( file == null ){
+			return false;
+		}
+
+		try {
+			DataStorage rows = file.read();
+			HashMap<Integer, String> cachedFeatureMap = file.getFeatureMap();
+			int cachedFeatureIndex = file.getNumFeatures();
+
+			initialize(rows);
+			featureMap = cachedFeatureMap;
+			featureIndex = cachedFeatureIndex;
+			return true;
+		} catch (IOException e) {
+			// e.g. evicted by another run or an old format; parse the file instead
+			return false;
+		} catch (RuntimeException e) {
+			// a truncated or corrupted entry (e.g. a BufferUnderflowException); the cache
+			// is only an optimization, so drop the entry and parse the file instead
+			entry.delete();
+			return false;
+		}
+	}
+
+	/**
+	 * Create a new data set from a text file (see TextDataReader for the format) using
+	 * an already configured parser, e.g. one set up to hash the words:
+	 *
+	 * TextFileParser parser = new TextFileParser(filename);
+	 * parser.setHashingBits(18);
+	 * DataSet data = new DataSet(parser);
+	 *
+	 * @param parser
+	 */
+	public DataSet(TextFileParser parser){
+		try {
+			initialize(parser.parse());
+			featureMap = parser.getFeatureMap();
+			featureIndex = parser.getNumFeatures();
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Populate this dataset with views over all of the rows in storage.
+	 *
+	 * @param rows
+	 */
+	private void initialize(DataStorage rows){
+		storage = rows;
+		data = rows.getRows();
+
+		for( double label: rows.getLabelArray() ){
+			labels.add(label);
 		}
 	}
 
@@ -108,6 +223,70 @@ public class DataSet {
 		featureIndex = maxIndex+1;
 	}
 
+	/**
+	 * Create a data set that is a view of some of the examples in source, without
+	 * copying anything until the examples are actually needed.  The view shares
+	 * source's feature map.
+	 *
+	 * @param source the data set with the examples
+	 * @param order an ordering of (some of) the indices of source's examples
+	 * @param begin
+	 * @param end
+	 * @param exclude if false the view is the examples order[begin..end), otherwise
+	 * it is every example in order except those
+	 */
+	DataSet(DataSet source, int[] order, int begin, int end, boolean exclude){
+		featureMap = source.featureMap;
+		featureIndex = source.featureIndex;
+		data = null;
+		labels = null;
+
+		viewSource = source;
+		viewOrder = order;
+		viewBegin = begin;
+		viewEnd = end;
+		viewExcludes = exclude;
+	}
+
+	/**
+	 * If this data set is a view, collect its examples into data.  Safe to call from
+	 * several threads at once: the examples are collected once, and data is only
+	 * visible after it's complete.
+	 */
+	private void materialize(){
+		if( viewSource == null ){
+			return;
+		}
+
+		synchronized( this ){
+			if( viewSource == null ){
+				return;
+			}
+
+			ArrayList<Example> sourceData = viewSource.getData();
+			int size = viewExcludes ? viewOrder.length-(viewEnd-viewBegin) : viewEnd-viewBegin;
+			ArrayList<Example> viewData = new ArrayList<Example>(size);
+			HashSet<Double> viewLabels = new HashSet<Double>();
+
+			for( int i = 0; i < viewOrder.length; i++ ){
+				boolean inRange = i >= viewBegin && i < viewEnd;
+
+				if( inRange != viewExcludes ){
+					Example e = sourceData.get(viewOrder[i]);
+					viewData.add(e);
+					viewLabels.add(e.getLabel());
+				}
+			}
+
+			data = viewData;
+			labels = viewLabels;
+			viewOrder = null;
+
+			// publishes data and labels to threads that see viewSource as null
+			viewSource = null;
+		}
+	}
+
 	/**
 	 * Get the mapping from feature indices to feature names.  This is
 	 * mostly useful when trying to print out the final models.
@@ -118,12 +297,24 @@ public class DataSet {
 		return featureMap;
 	}
 
+	/**
+	 * Get the number of feature indices used by this data set, i.e. one more than
+	 * the largest feature index.  This is the size an array indexed by feature
+	 * needs to be.
+	 *
+	 * @return the number of feature indices
+	 */
+	public int getNumFeatures(){
+		return featureIndex;
+	}
+
 	/**
 	 * Get the examples associated with this data set
 	 *
 	 * @return the examples
 	 */
 	public ArrayList<Example> getData(){
+		materialize();
 		return data;
 	}
 
@@ -137,6 +328,11 @@ public class DataSet {
 	 * @param addMe
 	 */
 	public void addData(ArrayList<Example> addMe){
+		materialize();
+		storage = null;
+		labelDictionary = null;
+		encodedLabels = null;
+
 		for( Example e: addMe ){
 			data.add(e);
 			labels.add(e.getLabel());
@@ -153,10 +349,35 @@ public class DataSet {
 	 * @param e
 	 */
 	public void addData(Example e){
+		materialize();
+		storage = null;
+		labelDictionary = null;
+		encodedLabels = null;
 		data.add(e);
 		labels.add(e.getLabel());
 	}
 
+	/**
+	 * Get the contiguous storage that backs the examples of this data set, e.g.
+	 * DenseStorage for CSV files.  Row i of the storage is example i of getData().
+	 *
+	 * @return the storage, or null if the examples aren't backed by storage
+	 */
+	public DataStorage getStorage(){
+		if( storage != null && (!storage.isValid() || storage.getNumRows() != data.size()) ){
+			storage = null;
+		}
+
+		return storage;
+	}
+
+	/**
+	 * @return whether the examples of this data set are backed by DenseStorage
+	 */
+	public boolean isDense(){
+		return getStorage() instanceof DenseStorage;
+	}
+
 	/**
 	 * Get all of the feature indices that are contained in this
 	 * data set.
@@ -173,9 +394,61 @@ public class DataSet {
 	 * @return the labels
 	 */
 	public Set<Double> getLabels(){
+		materialize();
 		return labels;
 	}
 
+	/**
+	 * Get the mapping between this data set's labels and dense class ids.
+	 *
+	 * @return the label dictionary
+	 */
+	public LabelDictionary getLabelDictionary(){
+		encodeLabels();
+		return labelDictionary;
+	}
+
+	/**
+	 * Get the class id (see getLabelDictionary) of the label of each example:
+	 * entry i is the class id of example i of getData().
+	 *
+	 * The encoding is computed the first time it's asked for (and again after data is
+	 * added).  If labels are changed directly through the examples after that, it
+	 * won't reflect the change.
+	 *
+	 * @return the encoded labels
+	 */
+	public int[] getEncodedLabels(){
+		encodeLabels();
+		return encodedLabels;
+	}
+
+	/**
+	 * Compute the label dictionary and the encoded labels if they aren't already.
+	 */
+	private void encodeLabels(){
+		if( encodedLabels != null ){
+			return;
+		}
+
+		ArrayList<Example> examples = getData();
+		double[] rawLabels = new double[examples.size()];
+
+		for( int i = 0; i < rawLabels.length; i++ ){
+			rawLabels[i] = examples.get(i).getLabel();
+		}
+
+		LabelDictionary dictionary = new LabelDictionary(rawLabels, rawLabels.length);
+		int[] encoded = new int[rawLabels.length];
+
+		for( int i = 0; i < rawLabels.length; i++ ){
+			encoded[i] = dictionary.getId(rawLabels[i]);
+		}
+
+		labelDictionary = dictionary;
+		encodedLabels = encoded;
+	}
+
 	/**
 	 * Split this data set into two data sets of size:
 	 * - total_size * fraction
@@ -185,7 +458,7 @@ public class DataSet {
 	 * @return a split of the data
 	 */
 	public DataSetSplit split(double fraction){
-		ArrayList<Example> newdata = (ArrayList<Example>)data.clone();
+		ArrayList<Example> newdata = (ArrayList<Example>)getData().clone();
 		Collections.shuffle(newdata, new Random(System.nanoTime()));
 
 		ArrayList<Example> train = new ArrayList<Example>();
@@ -210,6 +483,53 @@ public class DataSet {
 		return new DataSetSplit(dTrain, dTest);
 	}
 
+	/**
+	 * Merge examples that have the same features and label into a single example whose
+	 * weight is the total weight of the merged examples.  Classifiers and evaluation that
+	 * honor example weights then do the same work once per distinct row rather than once
+	 * per copy.  "this" DataSet remains unchanged.
+	 *
+	 * @return a new data set with copies of the distinct examples, in the order they first
+	 * appear in this one
+	 */
+	public DataSet compact(){
+		DataSet compacted = new DataSet(featureMap);
+		compacted.featureIndex = featureIndex;
+		compacted.biasFeature = biasFeature;
+
+		HashMap<Row, Example> distinct = new HashMap<Row, Example>();
+
+		for( Example e: getData() ){
+			Row row = new Row(e);
+			Example merged = distinct.get(row);
+
+			if( merged == null ){
+				merged = new Example(e);
+				merged.trimToSize();
+				distinct.put(row, merged);
+				compacted.addData(merged);
+			}else{
+				merged.setWeight(merged.getWeight() + e.getWeight());
+			}
+		}
+
+		return compacted;
+	}
+
+	/**
+	 * @return the total weight of the examples in this data set (the number of examples
+	 * if none of them have been weighted)
+	 */
+	public double getTotalWeight(){
+		double total = 0.0;
+
+		for( Example e: getData() ){
+			total += e.getWeight();
+		}
+
+		return total;
+	}
+
 	/**
 	 * Get a cross-validation of this data set with num splits.  The
 	 * data is split WITHOUT changing the order or the data.
@@ -247,6 +567,7 @@ public class DataSet {
 
 		// set the bias index for the new dataset
 		biased.biasFeature = featureIndex;
+		biased.featureIndex = featureIndex+1;
 
 		// add the bias to the feature mapping
 		biased.featureMap.put(biased.biasFeature, "bias");
@@ -281,4 +602,42 @@ public class DataSet {
 
 		return biased;
 	}
+
+	/**
+	 * Wraps an example so that examples with the same features and label are equal
+	 * as hash keys.
+	 */
+	private static class Row {
+		private final Example example;
+		private final int hash;
+
+		Row(Example example){
+			this.example = example;
+
+			int h = Double.hashCode(example.getLabel());
+
+			for( int i = 0; i < example.getNumFeatures(); i++ ){
+				h = 31*h + example.getFeatureIndexAt(i);
+				h = 31*h + Double.hashCode(example.getFeatureValueAt(i));
+			}
+
+			hash = h;
+		}
+
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if( !(o instanceof Row) ){
+				return false;
+			}
+
+			Example other = ((Row)o).example;
+
+			return Double.compare(example.getLabel(), other.getLabel()) == 0 && example.equalFeatures(other);
+		}
+	}
 }
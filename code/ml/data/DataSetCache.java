@@ -0,0 +1,302 @@
+package ml.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * An on-disk cache of parsed data sets, so that loading the same CSV or text file
+ * again (e.g. on the next run of an experiment) reads the already parsed examples in
+ * the BinaryDataFile format instead of parsing the file.
+ *
+ * Entries are keyed by the file's path, size and last modified time, so a cache hit
+ * doesn't read the file at all.  Only when those don't match an entry is the file's
+ * contents checksummed: an entry for the same contents (e.g. the file was touched or
+ * copied back into place) is reused, and otherwise the file is parsed again.  When the
+ * entries take up more than the size cap, the least recently used ones are deleted.
+ *
+ * The cache is configured with system properties:
+ *   ml.dataset.cache           set to false to turn the cache off
+ *   ml.dataset.cache.dir       the cache directory (default: ml-dataset-cache in java.io.tmpdir)
+ *   ml.dataset.cache.maxBytes  the size cap (default: 1 GB)
+ *
+ * DataSet(filename, fileType) uses the cache automatically.
+ */
+public class DataSetCache {
+	public static final String ENABLED_PROPERTY = "ml.dataset.cache";
+	public static final String DIRECTORY_PROPERTY = "ml.dataset.cache.dir";
+	public static final String MAX_BYTES_PROPERTY = "ml.dataset.cache.maxBytes";
+
+	private static final long DEFAULT_MAX_BYTES = 1L << 30;
+	private static final String SUFFIX = ".mlds";
+
+	private final Path directory;
+	private final long maxBytes;
+
+	/**
+	 * @param directory where to keep the cached data sets
+	 * @param maxBytes how much space the cached data sets can take up in total
+	 */
+	public DataSetCache(Path directory, long maxBytes){
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the cache configured by the system properties, or null if caching is turned off
+	 */
+	public static DataSetCache getDefault(){
+		if( "false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY)) ){
+			return null;
+		}
+
+		String dir = System.getProperty(DIRECTORY_PROPERTY);
+		Path directory = dir != null ? Paths.get(dir) : Paths.get(System.getProperty("java.io.tmpdir"), "ml-dataset-cache");
+
+		return new DataSetCache(directory, Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES));
+	}
+
+	/**
+	 * Get the cache entry for the current contents of a file.
+	 *
+	 * @param filename the CSV or text file
+	 * @param fileType DataSet.CSVFILE or DataSet.TEXTFILE
+	 * @return the entry
+	 * @throws IOException if the file can't be read
+	 */
+	public Entry getEntry(String filename, int fileType) throws IOException{
+		Path source = Paths.get(filename).toAbsolutePath().normalize();
+		long size = Files.size(source);
+		long modified = Files.getLastModifiedTime(source).toMillis();
+
+		String prefix = hashPath(source.toString() + "\0" + fileType);
+		String stamp = String.format("%s-%x-%x-", prefix, size, modified);
+
+		// the file hasn't changed since it was cached, going by its size and modified time
+		Path cached = findEntry(stamp + "*" + SUFFIX);
+
+		if( cached != null ){
+			return new Entry(prefix, cached);
+		}
+
+		// it has, or it was never cached: check for an entry with the same contents
+		long checksum = checksum(source);
+		Path file = directory.resolve(String.format("%s%08x%s", stamp, checksum, SUFFIX));
+		Path sameContents = findEntry(String.format("%s-%x-*-%08x%s", prefix, size, checksum, SUFFIX));
+
+		if( sameContents != null ){
+			try {
+				Files.move(sameContents, file, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// e.g. another run moved it first; the entry is then just a miss
+			}
+		}
+
+		return new Entry(prefix, file);
+	}
+
+	/**
+	 * @param glob
+	 * @return a cached data set file matching glob, or null if there isn't one
+	 * @throws IOException
+	 */
+	private Path findEntry(String glob) throws IOException{
+		if( !Files.isDirectory(directory) ){
+			return null;
+		}
+
+		try( DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob) ){
+			for( Path file: files ){
+				return file;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Delete every cached data set.
+	 *
+	 * @throws IOException
+	 */
+	public void clear() throws IOException{
+		for( Path file: listEntries() ){
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Delete the least recently used entries until the rest fit in the size cap.
+	 *
+	 * @throws IOException
+	 */
+	private void evict() throws IOException{
+		ArrayList<Path> entries = listEntries();
+		HashMap<Path, FileTime> lastUsed = new HashMap<Path, FileTime>();
+		long total = 0;
+
+		for( Path file: entries ){
+			total += Files.size(file);
+			lastUsed.put(file, Files.getLastModifiedTime(file));
+		}
+
+		entries.sort(Comparator.comparing(lastUsed::get));
+
+		for( int i = 0; i < entries.size() && total > maxBytes; i++ ){
+			long size = Files.size(entries.get(i));
+
+			if( Files.deleteIfExists(entries.get(i)) ){
+				total -= size;
+			}
+		}
+	}
+
+	/**
+	 * @return the cached data set files
+	 * @throws IOException
+	 */
+	private ArrayList<Path> listEntries() throws IOException{
+		ArrayList<Path> entries = new ArrayList<Path>();
+
+		if( !Files.isDirectory(directory) ){
+			return entries;
+		}
+
+		try( DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX) ){
+			for( Path file: files ){
+				entries.add(file);
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * @param path
+	 * @return a short hex hash of path that's safe to use in a file name
+	 */
+	private static String hashPath(String path){
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(path.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+
+			for( int i = 0; i < 8; i++ ){
+				hex.append(String.format("%02x", digest[i]));
+			}
+
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return the CRC-32C of the contents of file
+	 * @throws IOException
+	 */
+	private static long checksum(Path file) throws IOException{
+		CRC32C crc = new CRC32C();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+		try( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ){
+			while( channel.read(buffer) >= 0 ){
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+
+		return crc.getValue();
+	}
+
+	/**
+	 * The cache slot for one version of a file.
+	 */
+	public class Entry {
+		private final String prefix; // shared by every version of the same file
+		private final Path file;
+
+		private Entry(String prefix, Path file){
+			this.prefix = prefix;
+			this.file = file;
+		}
+
+		/**
+		 * @return the cached data set (not yet read), or null if it isn't cached
+		 */
+		public BinaryDataFile open(){
+			if( !Files.isRegularFile(file) ){
+				return null;
+			}
+
+			// the file's modified time is when it was last used, for eviction
+			try {
+				Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			} catch (IOException e) {
+				// it still works as a cache hit; it might just be evicted sooner
+			}
+
+			return new BinaryDataFile(file.toString());
+		}
+
+		/**
+		 * Delete this entry, e.g. because it couldn't be read.
+		 */
+		public void delete(){
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// it'll be replaced the next time the file is stored, or evicted
+			}
+		}
+
+		/**
+		 * Cache data as this entry, replacing any older versions of the same file.
+		 *
+		 * @param data the parsed file
+		 * @throws IOException
+		 */
+		public void store(DataSet data) throws IOException{
+			Files.createDirectories(directory);
+
+			for( Path old: listEntries() ){
+				if( old.getFileName().toString().startsWith(prefix + "-") ){
+					Files.deleteIfExists(old);
+				}
+			}
+
+			// write to a temporary file first so other runs never see a partial entry
+			Path temp = Files.createTempFile(directory, prefix, ".tmp");
+
+			try {
+				BinaryDataFile.write(data, temp.toString());
+
+				if( Files.size(temp) > maxBytes ){
+					return;
+				}
+
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+
+			evict();
+		}
+	}
+}
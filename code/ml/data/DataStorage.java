@@ -0,0 +1,96 @@
+package ml.data;
+
+import java.util.ArrayList;
+
+/**
+ * Contiguous, array-backed storage for the examples of a data set.  The examples
+ * handed out by a storage are lightweight views over its arrays: reading them
+ * reads the arrays directly and writing an existing feature or a label writes
+ * through to the storage.
+ *
+ * If a view has a *new* feature added to it, it copies itself out of the storage and
+ * the storage is marked as no longer valid, since it no longer describes the data.
+ */
+public abstract class DataStorage {
+	protected final int numRows;
+	protected final double[] labels;
+	private boolean valid = true;
+
+	/**
+	 * @param labels the label for each row (owned by the storage after this call)
+	 */
+	protected DataStorage(double[] labels){
+		this.numRows = labels.length;
+		this.labels = labels;
+	}
+
+	/**
+	 * @return the number of rows (examples) in this storage
+	 */
+	public int getNumRows(){
+		return numRows;
+	}
+
+	/**
+	 * Get the labels of all the rows.  Entry i is the label of row i.
+	 *
+	 * @return the label array (not a copy)
+	 */
+	public double[] getLabelArray(){
+		return labels;
+	}
+
+	/**
+	 * Get a view of row as an Example.  Each call creates a new view object.
+	 *
+	 * @param row
+	 * @return the example for that row
+	 */
+	public abstract Example getRow(int row);
+
+	/**
+	 * Get views over all of the rows in order.
+	 *
+	 * @return the examples for all rows
+	 */
+	public ArrayList<Example> getRows(){
+		ArrayList<Example> rows = new ArrayList<Example>(numRows);
+
+		for( int i = 0; i < numRows; i++ ){
+			rows.add(getRow(i));
+		}
+
+		return rows;
+	}
+
+	/**
+	 * @return whether the storage still matches the examples that were handed out
+	 */
+	public boolean isValid(){
+		return valid;
+	}
+
+	/**
+	 * Called when an existing feature value of a row was changed.
+	 */
+	void featuresModified(){
+		// nothing cached by default
+	}
+
+	/**
+	 * Called when a row's label was changed through its Example.
+	 *
+	 * @param row
+	 * @param label
+	 */
+	void setLabel(int row, double label){
+		labels[row] = label;
+	}
+
+	/**
+	 * Called when a row's Example stopped being a view over this storage.
+	 */
+	void invalidate(){
+		valid = false;
+	}
+}
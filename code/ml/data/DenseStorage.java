@@ -0,0 +1,144 @@
+package ml.data;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dense storage for data sets where every example has a value for every feature
+ * (e.g. numeric CSV files).  The feature values are stored in one row-major array,
+ * so example i's features are values [i*numColumns, (i+1)*numColumns).  A column-major
+ * copy of the same values is built on demand for per-feature scans.
+ */
+public class DenseStorage extends DataStorage {
+	private final int numColumns;
+	private final double[] rowMajor;
+	private double[] columnMajor; // lazily built, dropped whenever a value changes
+	private final int[] columnIndices; // 0 ... numColumns-1, shared by all the row views
+
+	/**
+	 * @param numColumns the number of features per row
+	 * @param rowMajor the feature values in row-major order (owned by the storage after this call)
+	 * @param labels the label for each row (owned by the storage after this call)
+	 */
+	public DenseStorage(int numColumns, double[] rowMajor, double[] labels){
+		super(labels);
+
+		if( rowMajor.length != numColumns*labels.length ){
+			throw new IllegalArgumentException("Expected " + numColumns*labels.length + " values for " +
+					labels.length + " rows with " + numColumns + " columns, received " + rowMajor.length);
+		}
+
+		this.numColumns = numColumns;
+		this.rowMajor = rowMajor;
+		this.columnIndices = new int[numColumns];
+
+		for( int i = 0; i < numColumns; i++ ){
+			columnIndices[i] = i;
+		}
+	}
+
+	/**
+	 * Build dense storage from examples that all have exactly the features 0 ... numColumns-1.
+	 *
+	 * @param examples
+	 * @param numColumns
+	 * @return the storage, or null if some example isn't dense over numColumns features
+	 */
+	public static DenseStorage fromExamples(List<Example> examples, int numColumns){
+		double[] values = new double[examples.size()*numColumns];
+		double[] labels = new double[examples.size()];
+
+		for( int row = 0; row < examples.size(); row++ ){
+			Example e = examples.get(row);
+
+			if( e.getNumFeatures() != numColumns ||
+				(numColumns > 0 && e.getFeatureIndexAt(numColumns-1) != numColumns-1) ){
+				return null;
+			}
+
+			int rowStart = row*numColumns;
+
+			for( int i = 0; i < numColumns; i++ ){
+				values[rowStart+i] = e.getFeatureValueAt(i);
+			}
+
+			labels[row] = e.getLabel();
+		}
+
+		return new DenseStorage(numColumns, values, labels);
+	}
+
+	/**
+	 * @return the number of features in each row
+	 */
+	public int getNumColumns(){
+		return numColumns;
+	}
+
+	/**
+	 * Get a single value.
+	 *
+	 * @param row
+	 * @param column
+	 * @return the value of feature column for example row
+	 */
+	public double getValue(int row, int column){
+		return rowMajor[row*numColumns+column];
+	}
+
+	/**
+	 * Get the row-major feature values, i.e. row r, column c is at r*getNumColumns()+c.
+	 *
+	 * @return the row-major values (not a copy)
+	 */
+	public double[] getRowMajor(){
+		return rowMajor;
+	}
+
+	/**
+	 * Get the column-major feature values, i.e. row r, column c is at c*getNumRows()+r.
+	 * The array is a snapshot: it is rebuilt on the next call if any value changes.
+	 *
+	 * @return the column-major values
+	 */
+	public double[] getColumnMajor(){
+		double[] columns = columnMajor;
+
+		if( columns == null ){
+			columns = new double[rowMajor.length];
+
+			for( int row = 0; row < numRows; row++ ){
+				int rowStart = row*numColumns;
+
+				for( int col = 0; col < numColumns; col++ ){
+					columns[col*numRows+row] = rowMajor[rowStart+col];
+				}
+			}
+
+			columnMajor = columns;
+		}
+
+		return columns;
+	}
+
+	/**
+	 * Get a copy of all of the values of one feature.
+	 *
+	 * @param column
+	 * @return the values of feature column, one per row
+	 */
+	public double[] getColumn(int column){
+		int start = column*numRows;
+		return Arrays.copyOfRange(getColumnMajor(), start, start+numRows);
+	}
+
+	@Override
+	public Example getRow(int row){
+		return new Example(this, row, columnIndices, 0, rowMajor, row*numColumns, numColumns, labels[row]);
+	}
+
+	@Override
+	void featuresModified(){
+		columnMajor = null;
+	}
+}
@@ -1,14 +1,15 @@
 package ml.data;
 
-import java.util.Collections;
-import java.util.ArrayList;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * A class to represent an example
- * 
+ *
  * @author dkauchak
  */
 public class Example {
@@ -16,137 +17,354 @@ public class Example {
 	// Rather than keeping the name of the feature (i.e. the header information), we'll
 	// index the features starting at 0.  The DataSet class will keep a mapping from
 	// feature index to the actual name.
-	private HashMap<Integer, Double> sparseData;
+	//
+	// The features are kept as two parallel arrays sorted by feature index so that
+	// lookups are a binary search (or a direct index for dense examples) and iterating
+	// over the stored features doesn't box anything.
+	private static final int DEFAULT_CAPACITY = 4;
+
+	private int[] indices;  // the feature indices, sorted ascending
+	private double[] values;  // the value for the feature at the same position in indices
+	private int indexOffset;  // where this example's features start in indices
+	private int valueOffset;  // where this example's features start in values
+	private int size;  // how many features are actually stored
 	private double label;  // the label (assuming it has one)
-	
+	private double weight = 1.0;  // how many examples this one counts as (see DataSet.compact)
+
+	// if this example is a view over a row of a DataStorage, the arrays above belong
+	// to the storage and writes go straight into it
+	private DataStorage storage;
+	private int row;
+
 	public Example(){
-		sparseData = new HashMap<Integer, Double>();
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty example with room for numFeatures features before
+	 * the underlying arrays need to grow.
+	 *
+	 * @param numFeatures the expected number of features
+	 */
+	public Example(int numFeatures){
+		indices = new int[numFeatures];
+		values = new double[numFeatures];
 	}
-	
+
 	public Example(Example e){
 		// copy everything
 		label = e.label;
-		sparseData = new HashMap<Integer,Double>(e.sparseData);
+		weight = e.weight;
+		size = e.size;
+		indices = Arrays.copyOfRange(e.indices, e.indexOffset, e.indexOffset+e.size);
+		values = Arrays.copyOfRange(e.values, e.valueOffset, e.valueOffset+e.size);
 	}
-	
+
+	/**
+	 * Create an example that is a view over one row of storage.  The arrays
+	 * are shared with the storage, not copied.
+	 *
+	 * @param storage the storage this row belongs to
+	 * @param row the row within the storage
+	 * @param indices the storage's feature index array
+	 * @param indexOffset where this row's feature indices start
+	 * @param values the storage's feature value array
+	 * @param valueOffset where this row's feature values start
+	 * @param size the number of features in this row
+	 * @param label the label of this row
+	 */
+	Example(DataStorage storage, int row, int[] indices, int indexOffset,
+			double[] values, int valueOffset, int size, double label){
+		this.storage = storage;
+		this.row = row;
+		this.indices = indices;
+		this.indexOffset = indexOffset;
+		this.values = values;
+		this.valueOffset = valueOffset;
+		this.size = size;
+		this.label = label;
+	}
+
 	/**
 	 * Add a feature with value to this example.
-	 * 
+	 *
 	 * @param featureNum  the index of the feature to be added
 	 * @param value  the value to be added
 	 */
 	public void addFeature(int featureNum, double value){
-		sparseData.put(featureNum, value);
+		setFeature(featureNum, value);
 	}
-		
+
 	/**
 	 * Get the value associated with this feature.
-	 * 
+	 *
 	 * @param featureNum
 	 * @return the value for featureNum for this example
 	 */
 	public double getFeature(int featureNum){
-		return sparseData.containsKey(featureNum) ? sparseData.get(featureNum) : 0.0;
+		int pos = findPosition(featureNum);
+		return pos >= 0 ? values[valueOffset+pos] : 0.0;
 	}
-	
+
 	/**
 	 * Set the values of the associated features with feature index featureNum.
-	 * 
+	 *
 	 * @param featureNum
 	 * @param value
 	 */
 	public void setFeature(int featureNum, double value){
-		sparseData.put(featureNum, value);
+		// the common case when building examples is adding features in order
+		if( size == 0 || featureNum > indices[indexOffset+size-1] ){
+			insertAt(size, featureNum, value);
+			return;
+		}
+
+		int pos = findPosition(featureNum);
+
+		if( pos >= 0 ){
+			setFeatureValueAt(pos, value);
+		}else{
+			insertAt(-(pos+1), featureNum, value);
+		}
 	}
-	
+
 	/**
-	 * Get all the features that this example has (indices).
-	 * 
+	 * Get all the features that this example has (indices).  The set is a
+	 * live, read-only view of the features stored in this example.
+	 *
 	 * @return the set of features
 	 */
 	public Set<Integer> getFeatureSet(){
-		return sparseData.keySet();
+		return new FeatureSet();
+	}
+
+	/**
+	 * Get the number of features stored in this example.  Along with
+	 * getFeatureIndexAt and getFeatureValueAt this allows iterating over
+	 * the features without any allocation:
+	 *
+	 * for( int i = 0; i < e.getNumFeatures(); i++ ){
+	 *    ... e.getFeatureIndexAt(i) ... e.getFeatureValueAt(i) ...
+	 * }
+	 *
+	 * @return the number of stored features
+	 */
+	public int getNumFeatures(){
+		return size;
+	}
+
+	/**
+	 * Get the feature index stored at position pos (0 <= pos < getNumFeatures()).
+	 * Feature indices are in ascending order by position.
+	 *
+	 * @param pos
+	 * @return the feature index at that position
+	 */
+	public int getFeatureIndexAt(int pos){
+		return indices[indexOffset+pos];
+	}
+
+	/**
+	 * Get the feature value stored at position pos (0 <= pos < getNumFeatures()).
+	 *
+	 * @param pos
+	 * @return the feature value at that position
+	 */
+	public double getFeatureValueAt(int pos){
+		return values[valueOffset+pos];
+	}
+
+	/**
+	 * Overwrite the feature value stored at position pos (0 <= pos < getNumFeatures()).
+	 *
+	 * @param pos
+	 * @param value
+	 */
+	public void setFeatureValueAt(int pos, double value){
+		values[valueOffset+pos] = value;
+
+		if( storage != null ){
+			storage.featuresModified();
+		}
 	}
-	
+
 	/**
 	 * Set the label associated with this example.
-	 * 
+	 *
 	 * @param label
 	 */
 	public void setLabel(double label){
 		this.label = label;
+
+		if( storage != null ){
+			storage.setLabel(row, label);
+		}
 	}
-	
+
 	/**
 	 * Get the label associated with this example.
-	 * 
+	 *
 	 * @return the example label
 	 */
 	public double getLabel(){
 		return label;
 	}
-	
+
+	/**
+	 * Set the weight of this example, i.e. how much it counts for in training and
+	 * evaluation relative to other examples.  Weights aren't kept by DataStorage, so
+	 * they're lost when a data set is written to a file.
+	 *
+	 * @param weight
+	 */
+	public void setWeight(double weight){
+		this.weight = weight;
+	}
+
+	/**
+	 * Get the weight of this example (1.0 unless set).
+	 *
+	 * @return the example weight
+	 */
+	public double getWeight(){
+		return weight;
+	}
+
 	/**
 	 * Checks for equality between two examples *ignoring* the label
-	 * 
+	 *
 	 * @param other another example (Data object)
 	 * @return whether or not these examples have the same feature values
 	 */
 	public boolean equalFeatures(Example other){
-		return sparseData.equals(other.sparseData);
+		if( size != other.size ){
+			return false;
+		}
+
+		for( int i = 0; i < size; i++ ){
+			if( getFeatureIndexAt(i) != other.getFeatureIndexAt(i) ||
+				Double.doubleToLongBits(getFeatureValueAt(i)) != Double.doubleToLongBits(other.getFeatureValueAt(i)) ){
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Shrink the underlying arrays so that they only hold the stored features.
+	 * Useful once an example is done being built and will be kept around.
+	 */
+	public void trimToSize(){
+		if( storage == null && indices.length != size ){
+			indices = Arrays.copyOf(indices, size);
+			values = Arrays.copyOf(values, size);
+		}
 	}
-	
+
 	public String toString(){
 		StringBuffer buffer = new StringBuffer();
 		buffer.append(label);
-		
-		ArrayList<Integer> indices = new ArrayList<Integer>(sparseData.keySet());
-		Collections.sort(indices);
-		
-		for( int featureIndex: indices){
-			buffer.append(" " + featureIndex + ":" + valueToString(sparseData.get(featureIndex)));
-		}
-		
+
+		for( int i = 0; i < size; i++ ){
+			buffer.append(" " + getFeatureIndexAt(i) + ":" + valueToString(getFeatureValueAt(i)));
+		}
+
 		return buffer.toString();
 	}
-	
+
 	public String toString(HashMap<Integer, String> featureMap){
 		StringBuffer buffer = new StringBuffer();
 		buffer.append(label);
-		
-		ArrayList<Integer> indices = new ArrayList<Integer>(sparseData.keySet());
-		Collections.sort(indices);
-		
-		for( int featureIndex: indices){
-			buffer.append(" " + featureMap.get(featureIndex) + ":" + valueToString(sparseData.get(featureIndex)));
-		}
-		
+
+		for( int i = 0; i < size; i++ ){
+			buffer.append(" " + featureMap.get(getFeatureIndexAt(i)) + ":" + valueToString(getFeatureValueAt(i)));
+		}
+
 		return buffer.toString();
 	}
 
 	/**
 	 * CSV representation of this example
-	 * 
+	 *
 	 * @return csv representation
 	 */
 	public String toCSVString(){
 		StringBuffer buffer = new StringBuffer();
-		
-		ArrayList<Integer> indices = new ArrayList<Integer>(sparseData.keySet());
-		Collections.sort(indices);
-		
-		for( int featureIndex: indices){
-			buffer.append(valueToString(sparseData.get(featureIndex)) + ",");
-		}
-		
+
+		for( int i = 0; i < size; i++ ){
+			buffer.append(valueToString(getFeatureValueAt(i)) + ",");
+		}
+
 		buffer.append( valueToString(label) );
-		
+
 		return buffer.toString();
 	}
-	
+
+	/**
+	 * Find where featureNum is stored.
+	 *
+	 * @param featureNum
+	 * @return the position of featureNum if it's stored, otherwise (-(insertion point) - 1)
+	 */
+	private int findPosition(int featureNum){
+		// dense examples store feature i at position i, so check that first
+		if( featureNum >= 0 && featureNum < size && indices[indexOffset+featureNum] == featureNum ){
+			return featureNum;
+		}
+
+		int pos = Arrays.binarySearch(indices, indexOffset, indexOffset+size, featureNum);
+		return pos >= 0 ? pos-indexOffset : pos+indexOffset;
+	}
+
+	/**
+	 * Insert a new feature at position pos, shifting everything after it.
+	 *
+	 * @param pos
+	 * @param featureNum
+	 * @param value
+	 */
+	private void insertAt(int pos, int featureNum, double value){
+		if( storage != null ){
+			detach();
+		}
+
+		if( size == indices.length ){
+			int newCapacity = Math.max(DEFAULT_CAPACITY, size*2);
+			indices = Arrays.copyOf(indices, newCapacity);
+			values = Arrays.copyOf(values, newCapacity);
+		}
+
+		System.arraycopy(indices, pos, indices, pos+1, size-pos);
+		System.arraycopy(values, pos, values, pos+1, size-pos);
+		indices[pos] = featureNum;
+		values[pos] = value;
+		size++;
+	}
+
+	/**
+	 * Stop being a view over storage by copying this example's features into
+	 * arrays it owns.  The storage no longer matches this example afterwards.
+	 */
+	private void detach(){
+		int capacity = Math.max(DEFAULT_CAPACITY, size*2);
+		int[] newIndices = new int[capacity];
+		double[] newValues = new double[capacity];
+		System.arraycopy(indices, indexOffset, newIndices, 0, size);
+		System.arraycopy(values, valueOffset, newValues, 0, size);
+
+		indices = newIndices;
+		values = newValues;
+		indexOffset = 0;
+		valueOffset = 0;
+
+		storage.invalidate();
+		storage = null;
+	}
+
 	/**
 	 * Helper function to output integers as integer strings instead of as doubles
-	 * 
+	 *
 	 * @param val
 	 * @return
 	 */
@@ -157,4 +375,40 @@ public class Example {
 			return Double.toString(val);
 		}
 	}
+
+	/**
+	 * Read-only Set view over the stored feature indices.
+	 */
+	private class FeatureSet extends AbstractSet<Integer>{
+		@Override
+		public int size(){
+			return size;
+		}
+
+		@Override
+		public boolean contains(Object o){
+			return o instanceof Integer && findPosition((Integer)o) >= 0;
+		}
+
+		@Override
+		public Iterator<Integer> iterator(){
+			return new Iterator<Integer>(){
+				private int pos = 0;
+
+				@Override
+				public boolean hasNext(){
+					return pos < size;
+				}
+
+				@Override
+				public Integer next(){
+					if( pos >= size ){
+						throw new NoSuchElementException();
+					}
+
+					return getFeatureIndexAt(pos++);
+				}
+			};
+		}
+	}
 }
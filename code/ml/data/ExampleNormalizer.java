@@ -3,9 +3,13 @@ package ml.data;
 /**
  * A class that normalizes data set examples such that each example has a length of 1.
  *
+ * Only the features an example actually stores are read or written, so sparse examples
+ * stay sparse and normalizing costs time proportional to the number of stored features.
+ * Examples are normalized in parallel.
+ *
  * Prepared for CS158 Assignment 04. Authored by David D'Attile
  */
-public class ExampleNormalizer implements DataPreprocessor{
+public class ExampleNormalizer implements ExampleTransformer{
     /**
      * Preprocess the training data by normalizing each example's length to 1.
      *
@@ -13,9 +17,7 @@ public class ExampleNormalizer implements DataPreprocessor{
      */
     @Override
     public void preprocessTrain(DataSet train) {
-        for (Example e : train.getData()) {
-            normalizeExample(e);
-        }
+        train.getData().parallelStream().forEach(ExampleNormalizer::normalizeExample);
     }
 
     /**
@@ -25,14 +27,31 @@ public class ExampleNormalizer implements DataPreprocessor{
      */
     @Override
     public void preprocessTest(DataSet test) {
-        for (Example e : test.getData()) {
-            normalizeExample(e);
-        }
+        test.getData().parallelStream().forEach(ExampleNormalizer::normalizeExample);
+    }
+
+    /**
+     * Nothing to learn; every example is normalized on its own.
+     *
+     * @param train
+     */
+    @Override
+    public void fit(DataSet train) {
+    }
+
+    /**
+     * Normalize e's length to 1.
+     *
+     * @param e
+     */
+    @Override
+    public void transform(Example e) {
+        normalizeExample(e);
     }
 
     /**
      * A helper function for normalizing a feature such that it's length is 1
-     * after this function is called.
+     * after this function is called.  Examples with length 0 are left alone.
      *
      * @param e
      */
@@ -40,11 +59,14 @@ public class ExampleNormalizer implements DataPreprocessor{
         // get example length
         double l = calculateFeatureLength(e);
 
-        // calculate new feature value for each feature based on
+        if (l == 0.0) {
+            return;
+        }
+
+        // calculate new feature value for each stored feature based on
         // the example's length
-        for (int i = 0; i < e.getFeatureSet().size(); i++) {
-            double normalizedFeature = e.getFeature(i) / l;
-            e.setFeature(i, normalizedFeature);
+        for (int pos = 0; pos < e.getNumFeatures(); pos++) {
+            e.setFeatureValueAt(pos, e.getFeatureValueAt(pos) / l);
         }
     }
 
@@ -58,9 +80,10 @@ public class ExampleNormalizer implements DataPreprocessor{
         // init length
         double length = 0.0;
 
-        // add value of each feature squared to length
-        for (int i = 0; i < e.getFeatureSet().size(); i++) {
-            length += Math.pow(e.getFeature(i), 2);
+        // add value of each stored feature squared to length
+        for (int pos = 0; pos < e.getNumFeatures(); pos++) {
+            double value = e.getFeatureValueAt(pos);
+            length += value * value;
         }
 
         // return sqrt of length
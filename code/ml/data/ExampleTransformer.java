@@ -0,0 +1,23 @@
+package ml.data;
+
+/**
+ * A preprocessor that, once fit to the training data, transforms each example on
+ * its own.  This lets PreprocessingPipeline apply several of them to an example in
+ * a single pass rather than sweeping over the whole data set once per preprocessor.
+ */
+public interface ExampleTransformer extends DataPreprocessor {
+	/**
+	 * Learn whatever is needed to transform examples (e.g. feature means) from the
+	 * training data.  Should not modify train.
+	 * 
+	 * @param train
+	 */
+	public void fit(DataSet train);
+	
+	/**
+	 * Transform e in place using what was learned in fit.
+	 * 
+	 * @param e
+	 */
+	public void transform(Example e);
+}
@@ -1,24 +1,52 @@
 package ml.data;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * A class that normalizes data set features such that each feature is divided
  * by the training set mean and standard deviation for that feature.
  *
+ * The training statistics are computed in a single pass over the stored (nonzero)
+ * features using Welford's algorithm, with the examples split into chunks that are
+ * processed in parallel and then merged.  Features an example doesn't store count
+ * as zeros.
+ *
+ * Centering makes every feature of every example nonzero, which turns sparse data
+ * (e.g. text) dense.  Constructing the normalizer with center set to false only
+ * divides by the standard deviation, which keeps sparse examples sparse.
+ *
  * Prepared for CS158 Assignment 04. Authored by David D'Attile
  */
-public class FeatureNormalizer implements DataPreprocessor{
-    private ArrayList<Double> trainFeatureMeans;
-    private ArrayList<Double> trainFeatureStandardDeviations;
+public class FeatureNormalizer implements ExampleTransformer{
+    // how many examples each fork/join task handles
+    private static final int EXAMPLES_PER_TASK = 1024;
+
+    private double[] trainFeatureMeans;
+    private double[] trainFeatureStandardDeviations;
+    private final boolean center;
 
     /**
      * Initialize the Feature Normalizer data preprocessor. At initialization, the preprocessor
      * defaults initializes empty training feature means and stamdard deviations.
      */
     public FeatureNormalizer() {
-        this.trainFeatureMeans = new ArrayList<>();
-        this.trainFeatureStandardDeviations = new ArrayList<>();
+        this(true);
+    }
+
+    /**
+     * Initialize the Feature Normalizer data preprocessor.
+     *
+     * @param center whether to subtract the mean before dividing by the standard deviation;
+     * if false, features that are zero stay zero
+     */
+    public FeatureNormalizer(boolean center) {
+        this.trainFeatureMeans = new double[0];
+        this.trainFeatureStandardDeviations = new double[0];
+        this.center = center;
     }
 
     /**
@@ -29,30 +57,29 @@ public class FeatureNormalizer implements DataPreprocessor{
      */
     @Override
     public void preprocessTrain(DataSet train) {
+        fit(train);
 
-        // clear means and standard deviations arrays
-        this.trainFeatureMeans.clear();
-        this.trainFeatureStandardDeviations.clear();
+        // for each example, center then adjust w/variance scaling
+        normalize(train.getData());
+    }
 
-        // get feature count
-        int featureCount = train.getFeatureMap().size();
+    /**
+     * Calculate the feature means and standard deviations of the training data.
+     *
+     * @param train
+     */
+    @Override
+    public void fit(DataSet train) {
+        ArrayList<Example> data = train.getData();
+        int featureCount = train.getNumFeatures();
 
         // calculate and set feature means and standard deviations
-        for (int i = 0; i < featureCount; i++) {
-            double featureMean = calculateFeatureMean(train, i);
-            this.trainFeatureMeans.add(featureMean);
-
-            double featureVariance = calculateFeatureVariance(train, i, featureMean);
-            this.trainFeatureStandardDeviations.add(featureVariance);
-        }
+        FeatureStatistics stats = ForkJoinPool.commonPool().invoke(
+                new StatisticsTask(data, 0, data.size(), featureCount));
 
-        // for each example, center then adjust w/variance scaling
-        for (Example e : train.getData()) {
-            for (int i = 0; i < featureCount; i++) {
-                double newFeatureValue = (e.getFeature(i) - this.trainFeatureMeans.get(i)) / this.trainFeatureStandardDeviations.get(i);
-                e.setFeature(i, newFeatureValue);
-            }
-        }
+        this.trainFeatureMeans = new double[featureCount];
+        this.trainFeatureStandardDeviations = new double[featureCount];
+        stats.finish(data.size(), this.trainFeatureMeans, this.trainFeatureStandardDeviations);
     }
 
     /**
@@ -63,62 +90,274 @@ public class FeatureNormalizer implements DataPreprocessor{
      */
     @Override
     public void preprocessTest(DataSet test) {
+        // for each example, center then adjust w/variance scaling
+        normalize(test.getData());
+    }
 
-        // get feature count
-        int featureCount = test.getFeatureMap().size();
+    /**
+     * Normalize the examples in data (in parallel) with the training statistics.
+     *
+     * @param data
+     */
+    private void normalize(ArrayList<Example> data) {
+        ForkJoinPool.commonPool().invoke(new NormalizeTask(data, 0, data.size()));
+    }
 
-        // for each example, center then adjust w/variance scaling
-        for (Example e : test.getData()) {
+    /**
+     * Normalize a single example with the training statistics.  Features beyond the
+     * ones seen in training are left alone.
+     *
+     * @param e
+     */
+    @Override
+    public void transform(Example e) {
+        int featureCount = this.trainFeatureMeans.length;
+        int stored = e.getNumFeatures();
+
+        if (!this.center || (stored >= featureCount && featureCount > 0 && e.getFeatureIndexAt(featureCount - 1) == featureCount - 1)) {
+            // only the stored features change: either we're only scaling or every feature is
+            // already stored (dense examples store feature i at position i)
+            for (int pos = 0; pos < stored; pos++) {
+                int i = e.getFeatureIndexAt(pos);
+
+                if (i < featureCount) {
+                    double mean = this.center ? this.trainFeatureMeans[i] : 0.0;
+                    e.setFeatureValueAt(pos, (e.getFeatureValueAt(pos) - mean) / this.trainFeatureStandardDeviations[i]);
+                }
+            }
+        } else {
+            // centering a sparse example makes every feature nonzero
             for (int i = 0; i < featureCount; i++) {
-                double newFeatureValue = (e.getFeature(i) - this.trainFeatureMeans.get(i)) / this.trainFeatureStandardDeviations.get(i);
+                double newFeatureValue = (e.getFeature(i) - this.trainFeatureMeans[i]) / this.trainFeatureStandardDeviations[i];
                 e.setFeature(i, newFeatureValue);
             }
         }
     }
 
     /**
-     * A helper function for determining the average value of features at the specified index.
+     * Running count, mean and sum of squared differences from the mean (M2) of the
+     * stored values of each feature over some of the examples.
      *
-     * @param train
-     * @param featureIndex
-     * @return the average value of features at the specified index
+     * Only the features the examples store are kept, in an open addressing hash table,
+     * so that with sparse data (e.g. hashed text) each chunk's statistics are the size of
+     * the features it touches rather than of every feature.
+     */
+    private static class FeatureStatistics {
+        private final int featureCount;
+
+        // table slot --> feature (-1 if the slot is empty) and its statistics
+        private int[] features;
+        private int[] counts;
+        private double[] means;
+        private double[] m2s;
+        private int size;
+
+        FeatureStatistics(int featureCount) {
+            this.featureCount = featureCount;
+            allocate(16);
+        }
+
+        private void allocate(int capacity) {
+            this.features = new int[capacity];
+            this.counts = new int[capacity];
+            this.means = new double[capacity];
+            this.m2s = new double[capacity];
+            this.size = 0;
+            Arrays.fill(this.features, -1);
+        }
+
+        /**
+         * @param feature
+         * @return the table slot of feature, added with no values if it isn't there yet
+         */
+        private int slot(int feature) {
+            int mask = this.features.length - 1;
+            int hash = feature * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+
+            while (this.features[slot] != feature) {
+                if (this.features[slot] == -1) {
+                    if (2 * (this.size + 1) > this.features.length) {
+                        grow();
+                        return slot(feature);
+                    }
+
+                    this.features[slot] = feature;
+                    this.size++;
+                    break;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldFeatures = this.features;
+            int[] oldCounts = this.counts;
+            double[] oldMeans = this.means;
+            double[] oldM2s = this.m2s;
+            allocate(2 * oldFeatures.length);
+
+            for (int old = 0; old < oldFeatures.length; old++) {
+                if (oldFeatures[old] != -1) {
+                    int slot = slot(oldFeatures[old]);
+                    this.counts[slot] = oldCounts[old];
+                    this.means[slot] = oldMeans[old];
+                    this.m2s[slot] = oldM2s[old];
+                }
+            }
+        }
+
+        /**
+         * Add the stored features of e (Welford's update).
+         *
+         * @param e
+         */
+        void add(Example e) {
+            for (int pos = 0; pos < e.getNumFeatures(); pos++) {
+                int i = e.getFeatureIndexAt(pos);
+
+                if (i < this.featureCount) {
+                    int slot = slot(i);
+                    double value = e.getFeatureValueAt(pos);
+                    this.counts[slot]++;
+                    double delta = value - this.means[slot];
+                    this.means[slot] += delta / this.counts[slot];
+                    this.m2s[slot] += delta * (value - this.means[slot]);
+                }
+            }
+        }
+
+        /**
+         * Combine other's statistics into these (Chan et al.'s parallel update).  Only
+         * the features other has values for are visited.
+         *
+         * @param other statistics over a disjoint set of examples
+         */
+        void merge(FeatureStatistics other) {
+            for (int otherSlot = 0; otherSlot < other.features.length; otherSlot++) {
+                if (other.features[otherSlot] != -1) {
+                    combine(slot(other.features[otherSlot]), other.counts[otherSlot],
+                            other.means[otherSlot], other.m2s[otherSlot]);
+                }
+            }
+        }
+
+        /**
+         * Calculate the final mean and standard deviation of each feature, counting
+         * values that weren't stored as zeros.  Features with no variation get a
+         * standard deviation of 1 so that they're only centered.
+         *
+         * @param exampleCount the number of examples the statistics are over
+         * @param means where to put the means
+         * @param standardDeviations where to put the standard deviations
+         */
+        void finish(int exampleCount, double[] means, double[] standardDeviations) {
+            // features no example stores are all zeros
+            Arrays.fill(means, 0.0);
+            Arrays.fill(standardDeviations, 1.0);
+
+            for (int slot = 0; slot < this.features.length; slot++) {
+                int i = this.features[slot];
+
+                if (i == -1) {
+                    continue;
+                }
+
+                // the unstored values are a group of zeros with no spread
+                combine(slot, exampleCount - this.counts[slot], 0.0, 0.0);
+
+                double std = exampleCount == 0 ? 0.0 : Math.sqrt(this.m2s[slot] / exampleCount);
+                means[i] = this.means[slot];
+                standardDeviations[i] = std == 0.0 ? 1.0 : std;
+            }
+        }
+
+        private void combine(int slot, int otherCount, double otherMean, double otherM2) {
+            int count = this.counts[slot] + otherCount;
+
+            if (otherCount == 0) {
+                return;
+            }
+
+            double delta = otherMean - this.means[slot];
+            this.m2s[slot] += otherM2 + delta * delta * ((double) this.counts[slot] * otherCount / count);
+            this.means[slot] += delta * otherCount / count;
+            this.counts[slot] = count;
+        }
+    }
+
+    /**
+     * Computes the feature statistics of data[start, end) by splitting it in half
+     * until the pieces are small enough.
      */
-    private static double calculateFeatureMean(DataSet train, int featureIndex) {
+    private static class StatisticsTask extends RecursiveTask<FeatureStatistics> {
+        private static final long serialVersionUID = 1L;
 
-        // init sum
-        double sum = 0.0;
+        private final ArrayList<Example> data;
+        private final int start;
+        private final int end;
+        private final int featureCount;
 
-        // loop through features and add to sum
-        for (Example e : train.getData()) {
-            sum += e.getFeature(featureIndex);
+        StatisticsTask(ArrayList<Example> data, int start, int end, int featureCount) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            this.featureCount = featureCount;
         }
 
-        // return feature mean
-        return sum / train.getData().size();
+        @Override
+        protected FeatureStatistics compute() {
+            if (this.end - this.start <= EXAMPLES_PER_TASK) {
+                FeatureStatistics stats = new FeatureStatistics(this.featureCount);
+
+                for (int i = this.start; i < this.end; i++) {
+                    stats.add(this.data.get(i));
+                }
+
+                return stats;
+            }
+
+            int middle = (this.start + this.end) >>> 1;
+            StatisticsTask left = new StatisticsTask(this.data, this.start, middle, this.featureCount);
+            left.fork();
+            FeatureStatistics stats = new StatisticsTask(this.data, middle, this.end, this.featureCount).compute();
+            stats.merge(left.join());
+
+            return stats;
+        }
     }
 
     /**
-     * A helper function for determining the standard deviation of features
-     * at the specified index.
-     *
-     * @param train
-     * @param featureIndex
-     * @return the standard deviation of features at the specified index
+     * Normalizes the examples data[start, end) by splitting it in half until the
+     * pieces are small enough.
      */
-    private static double calculateFeatureVariance(
-            DataSet train,
-            int featureIndex,
-            double featureMean) {
+    private class NormalizeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
-        // init sum
-        double sum = 0.0;
+        private final ArrayList<Example> data;
+        private final int start;
+        private final int end;
 
-        // loop through features and add (feature - mean)^2 to sum
-        for (Example e : train.getData()) {
-            sum += Math.pow((e.getFeature(featureIndex) - featureMean), 2);
+        NormalizeTask(ArrayList<Example> data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
         }
 
-        // return feature std dev
-        return Math.sqrt(sum / train.getData().size());
+        @Override
+        protected void compute() {
+            if (this.end - this.start <= EXAMPLES_PER_TASK) {
+                for (int i = this.start; i < this.end; i++) {
+                    transform(this.data.get(i));
+                }
+            } else {
+                int middle = (this.start + this.end) >>> 1;
+                invokeAll(new NormalizeTask(this.data, this.start, middle),
+                        new NormalizeTask(this.data, middle, this.end));
+            }
+        }
     }
 }
@@ -0,0 +1,168 @@
+package ml.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Helpers for loading a file in parallel: the file is split into byte ranges that
+ * start and end on line boundaries, each range is parsed on its own thread and the
+ * results come back in file order so they can be merged in the same order a serial
+ * reader would have produced.
+ */
+class FileChunks {
+	// don't bother splitting below this size; thread startup would dominate
+	static final long MIN_CHUNK_SIZE = 4L << 20;
+
+	// keep chunks small enough that the threads stay evenly loaded
+	static final long MAX_CHUNK_SIZE = 64L << 20;
+
+	/**
+	 * Something that parses one byte range of a file.
+	 *
+	 * @param <T> the result of parsing the range
+	 */
+	interface RangeParser<T> {
+		T parse(long start, long end) throws IOException;
+	}
+
+	/**
+	 * Split [start, end) of the file into ranges that begin at the start of a line.
+	 *
+	 * @param channel
+	 * @param start
+	 * @param end
+	 * @param numThreads how many threads will be parsing
+	 * @return the range boundaries: range i is [bounds[i], bounds[i+1])
+	 * @throws IOException
+	 */
+	static long[] split(FileChannel channel, long start, long end, int numThreads) throws IOException{
+		long length = end-start;
+		int numChunks = (int)Math.min(Math.max(1, length/MIN_CHUNK_SIZE), numThreads);
+		numChunks = (int)Math.max(numChunks, length/MAX_CHUNK_SIZE);
+
+		long[] bounds = new long[numChunks+1];
+		bounds[0] = start;
+		int count = 1;
+		ByteBuffer buffer = ByteBuffer.allocate(64*1024);
+
+		for( int i = 1; i < numChunks; i++ ){
+			long guess = Math.max(start+i*(length/numChunks), bounds[count-1]);
+			long boundary = nextLineStart(channel, guess, end, buffer);
+
+			if( boundary > bounds[count-1] && boundary < end ){
+				bounds[count++] = boundary;
+			}
+		}
+
+		bounds[count++] = end;
+
+		long[] result = new long[count];
+		System.arraycopy(bounds, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Find the first line that starts at or after position.
+	 *
+	 * @param channel
+	 * @param position
+	 * @param end
+	 * @param buffer scratch space
+	 * @return the position where that line starts, or end if there isn't one
+	 * @throws IOException
+	 */
+	private static long nextLineStart(FileChannel channel, long position, long end, ByteBuffer buffer) throws IOException{
+		// a line starts at position if the byte before it ends a line
+		long current = position-1;
+
+		while( current < end ){
+			buffer.clear();
+			int read = channel.read(buffer, current);
+
+			if( read <= 0 ){
+				return end;
+			}
+
+			byte[] bytes = buffer.array();
+
+			for( int i = 0; i < read; i++ ){
+				if( bytes[i] == '\n' ){
+					return current+i+1;
+				}
+			}
+
+			current += read;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Parse each of the ranges in bounds on its own thread.
+	 *
+	 * @param bounds range boundaries as returned by split
+	 * @param numThreads
+	 * @param parser
+	 * @return the result for each range, in file order
+	 * @throws IOException
+	 */
+	static <T> List<T> parseAll(long[] bounds, int numThreads, RangeParser<T> parser) throws IOException{
+		int numRanges = bounds.length-1;
+		List<T> results = new ArrayList<T>(numRanges);
+
+		if( numRanges == 1 || numThreads <= 1 ){
+			for( int i = 0; i < numRanges; i++ ){
+				results.add(parser.parse(bounds[i], bounds[i+1]));
+			}
+
+			return results;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(Math.min(numThreads, numRanges));
+
+		try{
+			List<Future<T>> futures = new ArrayList<Future<T>>(numRanges);
+
+			for( int i = 0; i < numRanges; i++ ){
+				long rangeStart = bounds[i];
+				long rangeEnd = bounds[i+1];
+
+				futures.add(pool.submit(() -> {
+					try{
+						return parser.parse(rangeStart, rangeEnd);
+					}catch( IOException e ){
+						throw new UncheckedIOException(e);
+					}
+				}));
+			}
+
+			for( Future<T> future: futures ){
+				results.add(future.get());
+			}
+
+			return results;
+		}catch( InterruptedException e ){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading", e);
+		}catch( ExecutionException e ){
+			Throwable cause = e.getCause();
+
+			if( cause instanceof UncheckedIOException ){
+				throw ((UncheckedIOException)cause).getCause();
+			}else if( cause instanceof RuntimeException ){
+				throw (RuntimeException)cause;
+			}else{
+				throw new IOException(cause);
+			}
+		}finally{
+			pool.shutdownNow();
+		}
+	}
+}
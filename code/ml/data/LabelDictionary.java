@@ -0,0 +1,65 @@
+package ml.data;
+
+import java.util.Arrays;
+
+/**
+ * A mapping between the distinct labels of a data set and dense integer class ids
+ * 0, 1, ..., size()-1.  Ids are assigned in increasing order of label, so the same
+ * set of labels always gets the same ids.
+ *
+ * Classifiers can use the ids to keep per-class state in plain arrays rather than
+ * in maps keyed by (boxed) labels.
+ */
+public class LabelDictionary {
+	private final double[] labels; // sorted, distinct; labels[id] is the label for class id
+
+	/**
+	 * Create the dictionary for a collection of labels.  The labels don't need to be
+	 * distinct or in any order.
+	 *
+	 * @param allLabels
+	 * @param count how many entries of allLabels to use
+	 */
+	public LabelDictionary(double[] allLabels, int count){
+		double[] sorted = Arrays.copyOf(allLabels, count);
+		Arrays.sort(sorted);
+
+		int size = 0;
+
+		for( int i = 0; i < count; i++ ){
+			if( size == 0 || Double.compare(sorted[i], sorted[size-1]) != 0 ){
+				sorted[size++] = sorted[i];
+			}
+		}
+
+		labels = Arrays.copyOf(sorted, size);
+	}
+
+	/**
+	 * @return the number of distinct labels, i.e. one more than the largest class id
+	 */
+	public int size(){
+		return labels.length;
+	}
+
+	/**
+	 * @param id a class id
+	 * @return the label with that class id
+	 */
+	public double getLabel(int id){
+		return labels[id];
+	}
+
+	/**
+	 * @param label
+	 * @return the class id of label, or -1 if label isn't in the dictionary
+	 */
+	public int getId(double label){
+		int id = Arrays.binarySearch(labels, label);
+		return id >= 0 ? id : -1;
+	}
+
+	public String toString(){
+		return Arrays.toString(labels);
+	}
+}
@@ -0,0 +1,168 @@
+package ml.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Applies a chain of preprocessors to a train/test split, writing the results into
+ * new data sets rather than modifying the split's own examples.
+ *
+ * Preprocessors that are ExampleTransformers are fit in order, each on the training
+ * data as transformed by the ones before it, and then applied together: each example
+ * is copied and run through all of them in a single pass.  Any other DataPreprocessor
+ * has to see the whole data set, so the pipeline applies it on its own between passes.
+ *
+ * Every split gets fresh preprocessors from the supplier, so one pipeline can be used
+ * for several splits at once (e.g. with CrossValidationRunner).  The results are cached
+ * per split, so applying the pipeline to the same split again is free, and a split that
+ * several threads apply it to at the same time is only preprocessed once.
+ */
+public class PreprocessingPipeline {
+	private final Supplier<List<DataPreprocessor>> preprocessors;
+
+	// DataSetSplit doesn't override equals, so this is keyed by identity
+	private final Map<DataSetSplit, Result> cache = Collections.synchronizedMap(new WeakHashMap<DataSetSplit, Result>());
+
+	/**
+	 * @param preprocessors creates the preprocessors for a split, in the order they
+	 * should be applied
+	 */
+	public PreprocessingPipeline(Supplier<List<DataPreprocessor>> preprocessors){
+		this.preprocessors = preprocessors;
+	}
+
+	/**
+	 * Preprocess split: fit the preprocessors on the training data and apply them to
+	 * both the training and testing data.  split itself isn't changed.
+	 *
+	 * @param split
+	 * @return the preprocessed split (split itself if there are no preprocessors)
+	 */
+	public DataSetSplit apply(DataSetSplit split){
+		// only adding the entry holds the map's lock; the split is processed holding the
+		// entry's, so different splits can still be processed at the same time
+		Result result = cache.computeIfAbsent(split, s -> new Result());
+
+		synchronized( result ){
+			if( result.processed == null ){
+				List<DataPreprocessor> stages = preprocessors.get();
+
+				// nothing to cache; mapping split to itself would keep it from being collected
+				if( stages.isEmpty() ){
+					cache.remove(split);
+					return split;
+				}
+
+				result.processed = process(split, stages);
+			}
+
+			return result.processed;
+		}
+	}
+
+	/**
+	 * Fit and apply stages to split.
+	 *
+	 * @param split
+	 * @param stages at least one
+	 * @return the preprocessed split
+	 */
+	private static DataSetSplit process(DataSetSplit split, List<DataPreprocessor> stages){
+		// train: each stage is fit on the data as transformed by the stages before it.  The
+		// transformers are only applied when a later stage needs to see their output.
+		DataSet train = split.getTrain();
+		boolean trainCopied = false;
+		List<ExampleTransformer> pending = new ArrayList<ExampleTransformer>();
+
+		for( DataPreprocessor stage: stages ){
+			if( !pending.isEmpty() || (!trainCopied && !(stage instanceof ExampleTransformer)) ){
+				train = transform(train, trainCopied, pending);
+				trainCopied = true;
+				pending.clear();
+			}
+
+			if( stage instanceof ExampleTransformer ){
+				((ExampleTransformer)stage).fit(train);
+				pending.add((ExampleTransformer)stage);
+			}else{
+				stage.preprocessTrain(train);
+			}
+		}
+
+		train = transform(train, trainCopied, pending);
+
+		// test: everything is fit already, so consecutive transformers are applied together
+		DataSet test = split.getTest();
+		boolean testCopied = false;
+		pending.clear();
+
+		for( DataPreprocessor stage: stages ){
+			if( stage instanceof ExampleTransformer ){
+				pending.add((ExampleTransformer)stage);
+			}else{
+				test = transform(test, testCopied, pending);
+				testCopied = true;
+				pending.clear();
+				stage.preprocessTest(test);
+			}
+		}
+
+		test = transform(test, testCopied, pending);
+
+		return new DataSetSplit(train, test);
+	}
+
+	/**
+	 * Apply transformers to every example of data in one pass.
+	 *
+	 * @param data
+	 * @param inPlace whether data belongs to the pipeline and can be changed; otherwise
+	 * the examples are copied before being transformed
+	 * @param transformers
+	 * @return the transformed data
+	 */
+	private static DataSet transform(DataSet data, boolean inPlace, List<ExampleTransformer> transformers){
+		ArrayList<Example> examples = data.getData();
+
+		if( inPlace ){
+			if( !transformers.isEmpty() ){
+				examples.parallelStream().forEach(e -> transform(e, transformers));
+			}
+
+			return data;
+		}
+
+		Example[] copies = new Example[examples.size()];
+
+		IntStream.range(0, copies.length).parallel().forEach(i -> {
+			copies[i] = new Example(examples.get(i));
+			transform(copies[i], transformers);
+		});
+
+		DataSet copy = new DataSet(data.getFeatureMap());
+
+		for( Example e: copies ){
+			copy.addData(e);
+		}
+
+		return copy;
+	}
+
+	private static void transform(Example e, List<ExampleTransformer> transformers){
+		for( ExampleTransformer transformer: transformers ){
+			transformer.transform(e);
+		}
+	}
+
+	/**
+	 * A split's entry in the cache; processed is null until the split has been processed.
+	 */
+	private static class Result {
+		private DataSetSplit processed;
+	}
+}
@@ -0,0 +1,174 @@
+package ml.data;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compressed sparse row (CSR) storage for data sets where each example only has a
+ * few of the features (e.g. text).  All examples share three arrays: example i's
+ * features are the entries [rowPtr[i], rowPtr[i+1]) of colIdx (the feature indices,
+ * sorted) and values (the feature values).
+ */
+public class SparseStorage extends DataStorage {
+	private final int[] rowPtr;
+	private final int[] colIdx;
+	private final double[] values;
+
+	/**
+	 * @param rowPtr where each row starts in colIdx/values; has one more entry than there are rows
+	 * @param colIdx the feature indices, sorted within each row
+	 * @param values the feature values
+	 * @param labels the label for each row
+	 */
+	public SparseStorage(int[] rowPtr, int[] colIdx, double[] values, double[] labels){
+		super(labels);
+
+		if( rowPtr.length != labels.length+1 || colIdx.length < rowPtr[labels.length] ||
+			values.length < rowPtr[labels.length] ){
+			throw new IllegalArgumentException("Inconsistent CSR arrays for " + labels.length + " rows");
+		}
+
+		this.rowPtr = rowPtr;
+		this.colIdx = colIdx;
+		this.values = values;
+	}
+
+	/**
+	 * Build sparse storage holding a copy of the features of examples.
+	 *
+	 * @param examples
+	 * @return the storage
+	 */
+	public static SparseStorage fromExamples(List<Example> examples){
+		Builder builder = new Builder();
+
+		for( Example e: examples ){
+			builder.addRow(e);
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * @return the total number of stored (non-zero) entries
+	 */
+	public int getNumNonZero(){
+		return rowPtr[numRows];
+	}
+
+	/**
+	 * @return the row pointer array (not a copy)
+	 */
+	public int[] getRowPtr(){
+		return rowPtr;
+	}
+
+	/**
+	 * @return the feature index array (not a copy)
+	 */
+	public int[] getColIdx(){
+		return colIdx;
+	}
+
+	/**
+	 * @return the feature value array (not a copy)
+	 */
+	public double[] getValues(){
+		return values;
+	}
+
+	@Override
+	public Example getRow(int row){
+		int start = rowPtr[row];
+		return new Example(this, row, colIdx, start, values, start, rowPtr[row+1]-start, labels[row]);
+	}
+
+	/**
+	 * Incrementally builds SparseStorage one row at a time.
+	 */
+	public static class Builder {
+		private int[] rowPtr = new int[17];
+		private int[] colIdx = new int[256];
+		private double[] values = new double[256];
+		private double[] labels = new double[16];
+		private int numRows = 0;
+
+		/**
+		 * Append a copy of the features and label of e as the next row.
+		 *
+		 * @param e
+		 */
+		public void addRow(Example e){
+			int n = e.getNumFeatures();
+			int start = ensureCapacity(n);
+
+			for( int i = 0; i < n; i++ ){
+				colIdx[start+i] = e.getFeatureIndexAt(i);
+				values[start+i] = e.getFeatureValueAt(i);
+			}
+
+			finishRow(n, e.getLabel());
+		}
+
+		/**
+		 * Append a row from parallel index/value arrays.  The indices must be
+		 * sorted and unique.
+		 *
+		 * @param indices
+		 * @param rowValues
+		 * @param count how many entries of indices/rowValues to use
+		 * @param label
+		 */
+		public void addRow(int[] indices, double[] rowValues, int count, double label){
+			int start = ensureCapacity(count);
+			System.arraycopy(indices, 0, colIdx, start, count);
+			System.arraycopy(rowValues, 0, values, start, count);
+			finishRow(count, label);
+		}
+
+		/**
+		 * @return the number of rows added so far
+		 */
+		public int getNumRows(){
+			return numRows;
+		}
+
+		/**
+		 * @return the storage with all the rows added so far
+		 */
+		public SparseStorage build(){
+			int nnz = rowPtr[numRows];
+			return new SparseStorage(Arrays.copyOf(rowPtr, numRows+1), Arrays.copyOf(colIdx, nnz),
+					Arrays.copyOf(values, nnz), Arrays.copyOf(labels, numRows));
+		}
+
+		/**
+		 * Make room for another row with count entries.
+		 *
+		 * @param count
+		 * @return where the new row starts
+		 */
+		private int ensureCapacity(int count){
+			int start = rowPtr[numRows];
+
+			if( start+count > colIdx.length ){
+				int newCapacity = Math.max(colIdx.length*2, start+count);
+				colIdx = Arrays.copyOf(colIdx, newCapacity);
+				values = Arrays.copyOf(values, newCapacity);
+			}
+
+			if( numRows+2 > rowPtr.length ){
+				rowPtr = Arrays.copyOf(rowPtr, rowPtr.length*2);
+				labels = Arrays.copyOf(labels, rowPtr.length-1);
+			}
+
+			return start;
+		}
+
+		private void finishRow(int count, double label){
+			labels[numRows] = label;
+			rowPtr[numRows+1] = rowPtr[numRows]+count;
+			numRows++;
+		}
+	}
+}
@@ -4,17 +4,25 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
 
 import ml.classifiers.DecisionTreeClassifier;
-import ml.utils.HashMapCounter;
 
 /**
  * A class for reading text examples.
  * 
  * Each example should be a single line in the file.  The line should start with a numerical
  * label and then the words of the example should follow with each word separated by whitespace.
+ * Words are lowercased and words without any a-z characters are dropped.  Each new word gets
+ * the next feature index, in the order the words first appear in the file.
+ * 
+ * By default each distinct word gets its own feature index.  Alternatively, with
+ * setHashingBits(k), words are hashed into 2^k features (the "hashing trick"): the index
+ * and a +/-1 sign both come from a hash of the word, so no vocabulary is kept and readers
+ * on different threads or machines agree on the feature indices without coordinating.
  * 
  * @author dkauchak
  *
@@ -24,8 +32,19 @@ public class TextDataReader implements Iterator<Example>{
 	private BufferedReader in; // source to be reading data from
 	
 	// keep track of the mapping of the words to their feature index
-	private HashMap<String, Integer> wordToFeature = new HashMap<String,Integer>();
-	private int currentFeature = 0;
+	private WordTable wordToFeature = new WordTable();
+	
+	// scratch space for tokenizing a line: the lowercased characters, how many times
+	// each feature occurs in the line and which features occur, in order of occurrence
+	private char[] lineChars = new char[256];
+	private int[] featureCounts = new int[256];
+	private int[] lineFeatures = new int[64];
+	private int numLineFeatures = 0;
+	
+	// for the hashing trick: how many bits of the hash to use (0 means don't hash) and
+	// which of the 2^bits features have actually been used
+	private int hashingBits = 0;
+	private BitSet usedHashFeatures = new BitSet();
 		
 	/**
 	 * @param textFile the text file containing the examples
@@ -39,6 +58,22 @@ public class TextDataReader implements Iterator<Example>{
 		}
 	}
 	
+	/**
+	 * Create a new TextDataReader to read the examples from in.  The stream must only
+	 * contain lines with examples on them.
+	 * 
+	 * @param in
+	 */
+	public TextDataReader(BufferedReader in){
+		this.in = in;
+		
+		try {
+			nextLine = in.readLine();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	@Override
 	public boolean hasNext() {
 		return nextLine != null;
@@ -49,35 +84,86 @@ public class TextDataReader implements Iterator<Example>{
 		Example data = null;
 		
 		if( hasNext() ){
-			data = new Example();
+			// a single pass over the line finds the words, lowercases them and checks
+			// for letters; known words are looked up without making a String
+			int length = nextLine.length();
+			
+			if( length > lineChars.length ){
+				lineChars = new char[Math.max(length, lineChars.length*2)];
+			}
 			
-			// parse the line
-			String[] parts = nextLine.split("\\s+");
+			char[] chars = lineChars;
+			nextLine.getChars(0, length, chars, 0);
 			
-			data.setLabel(Double.parseDouble(parts[0]));
-	
-			// do a little bit of preprocessing and count how
-			// many times each word occurs
-			HashMapCounter<String> counter = new HashMapCounter<String>();
+			// the label is the first token
+			int pos = 0;
+			
+			while( pos < length && !isWhitespace(chars[pos]) ){
+				pos++;
+			}
+			
+			double label = Double.parseDouble(nextLine.substring(0, pos));
 			
-			for( int i = 1; i < parts.length; i++ ){
-				String w = parts[i].toLowerCase();
+			if( hashingBits > 0 ){
+				data = new Example();
+			}
+			
+			while( pos < length ){
+				while( pos < length && isWhitespace(chars[pos]) ){
+					pos++;
+				}
+				
+				int start = pos;
+				boolean hasLetter = false;
+				
+				while( pos < length && !isWhitespace(chars[pos]) ){
+					char c = chars[pos];
+					
+					if( c >= 'A' && c <= 'Z' ){
+						c += 'a'-'A';
+					}else if( c >= 128 ){
+						c = Character.toLowerCase(c);
+					}
+					
+					chars[pos] = c;
+					hasLetter |= c >= 'a' && c <= 'z';
+					pos++;
+				}
 				
-				// check if it has at least one alphabet character
-				if( !w.matches("[^a-z]+")){
-					counter.increment(w);
+				if( hasLetter ){
+					int hash = hashWord(chars, start, pos-start);
+					
+					if( hashingBits > 0 ){
+						// different words may land on the same feature, so accumulate
+						int featureIndex = hash & ((1 << hashingBits)-1);
+						double sign = hash < 0 ? -1.0 : 1.0;
+						
+						data.setFeature(featureIndex, data.getFeature(featureIndex) + sign);
+						usedHashFeatures.set(featureIndex);
+					}else{
+						countFeature(wordToFeature.add(chars, start, pos-start, hash));
+					}
 				}
 			}
 			
-			for( String word: counter.keySet() ){
-				if( !wordToFeature.containsKey(word) ){
-					wordToFeature.put(word, currentFeature);
-					currentFeature++;
+			if( hashingBits > 0 ){
+				data.trimToSize();
+			}else{
+				// add the counts in feature order so every add is an append
+				Arrays.sort(lineFeatures, 0, numLineFeatures);
+				data = new Example(numLineFeatures);
+				
+				for( int i = 0; i < numLineFeatures; i++ ){
+					int feature = lineFeatures[i];
+					data.addFeature(feature, featureCounts[feature]);
+					featureCounts[feature] = 0;
 				}
 				
-				data.addFeature(wordToFeature.get(word), counter.get(word));
+				numLineFeatures = 0;
 			}
 			
+			data.setLabel(label);
+			
 			try {
 				nextLine = in.readLine();
 			} catch (IOException e) {
@@ -88,25 +174,148 @@ public class TextDataReader implements Iterator<Example>{
 		return data;
 	}
 	
+	/**
+	 * Count one more occurrence of feature in the current line.
+	 * 
+	 * @param feature
+	 */
+	private void countFeature(int feature){
+		if( feature >= featureCounts.length ){
+			featureCounts = Arrays.copyOf(featureCounts, Math.max(feature+1, featureCounts.length*2));
+		}
+		
+		if( featureCounts[feature] == 0 ){
+			if( numLineFeatures == lineFeatures.length ){
+				lineFeatures = Arrays.copyOf(lineFeatures, lineFeatures.length*2);
+			}
+			
+			lineFeatures[numLineFeatures++] = feature;
+		}
+		
+		featureCounts[feature]++;
+	}
+	
+	/**
+	 * The same characters as \s in a regular expression.
+	 * 
+	 * @param c
+	 * @return whether c separates words
+	 */
+	private static boolean isWhitespace(char c){
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+	
 	@Override
 	public void remove() {
 		// OPTIONAL, so we won't implement
 	}
 
+	/**
+	 * Hash words into 2^bits features instead of giving each word its own feature.
+	 * Should be called before any examples are read.
+	 * 
+	 * @param bits the number of hash bits, between 1 and 30
+	 */
+	public void setHashingBits(int bits){
+		if( bits < 1 || bits > 30 ){
+			String msg = String.format("expected between 1 and 30 hashing bits; received %d", bits);
+			throw new IllegalArgumentException(msg);
+		}
+		
+		hashingBits = bits;
+	}
+	
+	/**
+	 * @return the number of hash bits, or 0 if words aren't being hashed
+	 */
+	public int getHashingBits(){
+		return hashingBits;
+	}
+	
 	/**
 	 * Get the feature mapping (i.e. association from feature index to word) for
 	 * all of the examples read so far.  Generally should only be called after
 	 * all of the examples have been read.
 	 * 
+	 * When hashing, there are no words to map to, so the map has an entry named
+	 * "hash_" + index for each feature that has been used.
+	 * 
 	 * @return feature map
 	 */
 	public HashMap<Integer, String> getFeatureMap(){
 		HashMap<Integer, String> featureMap = new HashMap<Integer, String>();
 		
-		for( String word: wordToFeature.keySet() ){
-			featureMap.put(wordToFeature.get(word), word);
+		if( hashingBits > 0 ){
+			for( int i = usedHashFeatures.nextSetBit(0); i >= 0; i = usedHashFeatures.nextSetBit(i+1) ){
+				featureMap.put(i, hashFeatureName(i));
+			}
+			
+			return featureMap;
+		}
+		
+		for( int i = 0; i < wordToFeature.size(); i++ ){
+			featureMap.put(i, wordToFeature.getWord(i));
 		}
 		
 		return featureMap;
 	}	
-}
\ No newline at end of file
+
+	/**
+	 * The name used in feature maps for a hashed feature.
+	 * 
+	 * @param featureIndex
+	 * @return the feature name
+	 */
+	public static String hashFeatureName(int featureIndex){
+		return "hash_" + featureIndex;
+	}
+	
+	/**
+	 * A 32-bit MurmurHash3 of the characters of a word.  Unlike String.hashCode the bits
+	 * are well mixed, so the low bits can be used as the feature index and the top bit
+	 * as the sign.
+	 * 
+	 * @param word array holding the word
+	 * @param start where the word starts in word
+	 * @param length the number of characters in the word
+	 * @return the hash
+	 */
+	static int hashWord(char[] word, int start, int length){
+		int h = 0x9747b28c;
+		int i = 0;
+		
+		// two chars per 32-bit block
+		for( ; i+1 < length; i += 2 ){
+			int k = word[start+i] | (word[start+i+1] << 16);
+			h = mixHash(h, k);
+		}
+		
+		if( i < length ){
+			int k = word[start+i];
+			k *= 0xcc9e2d51;
+			k = Integer.rotateLeft(k, 15);
+			k *= 0x1b873593;
+			h ^= k;
+		}
+		
+		// finalization
+		h ^= length*2;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		
+		return h;
+	}
+	
+	private static int mixHash(int h, int k){
+		k *= 0xcc9e2d51;
+		k = Integer.rotateLeft(k, 15);
+		k *= 0x1b873593;
+		
+		h ^= k;
+		h = Integer.rotateLeft(h, 13);
+		return h*5 + 0xe6546b64;
+	}
+}
@@ -0,0 +1,253 @@
+package ml.data;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Reads a whole text file (see TextDataReader for the format) into SparseStorage.
+ *
+ * Large files are split into line-aligned byte ranges that are read in parallel, each
+ * with its own TextDataReader and so its own word --> feature mapping.  The ranges are
+ * then merged in file order, giving every word the feature index it would have gotten
+ * from a single TextDataReader reading the whole file.
+ *
+ * With setHashingBits the words are hashed instead (see TextDataReader.setHashingBits).
+ * Every range then already agrees on the feature indices and merging is just concatenation.
+ */
+public class TextFileParser {
+	private final String filename;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private int hashingBits = 0;
+	private HashMap<Integer, String> featureMap;
+
+	/**
+	 * @param filename the text file to parse
+	 */
+	public TextFileParser(String filename){
+		this.filename = filename;
+	}
+
+	/**
+	 * Set how many threads to use when parsing.  Defaults to the number of processors.
+	 *
+	 * @param numThreads
+	 */
+	public void setNumThreads(int numThreads){
+		if( numThreads <= 0 ){
+			throw new IllegalArgumentException("expected a positive thread count; received " + numThreads);
+		}
+
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Hash words into 2^bits features rather than keeping a vocabulary.
+	 *
+	 * @param bits the number of hash bits, between 1 and 30
+	 */
+	public void setHashingBits(int bits){
+		if( bits < 1 || bits > 30 ){
+			throw new IllegalArgumentException("expected between 1 and 30 hashing bits; received " + bits);
+		}
+
+		hashingBits = bits;
+	}
+
+	/**
+	 * Parse the whole file.
+	 *
+	 * @return the examples in the file
+	 * @throws IOException
+	 */
+	public SparseStorage parse() throws IOException{
+		try( FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ) ){
+			long[] bounds = FileChunks.split(channel, 0, channel.size(), numThreads);
+			List<Chunk> chunks = FileChunks.parseAll(bounds, numThreads, (rangeStart, rangeEnd) -> readChunk(channel, rangeStart, rangeEnd));
+
+			return merge(chunks);
+		}
+	}
+
+	/**
+	 * Get the mapping from feature index to word for the parsed file.  Only valid after
+	 * parse has been called.
+	 *
+	 * @return feature map
+	 */
+	public HashMap<Integer, String> getFeatureMap(){
+		return featureMap;
+	}
+
+	/**
+	 * Get the number of feature indices for the parsed file: 2^bits when hashing, otherwise
+	 * the number of distinct words.  Only valid after parse has been called.
+	 *
+	 * @return the number of feature indices
+	 */
+	public int getNumFeatures(){
+		return hashingBits > 0 ? 1 << hashingBits : featureMap.size();
+	}
+
+	/**
+	 * Read the examples in [start, end) of the file with their own feature indices.
+	 */
+	private Chunk readChunk(FileChannel channel, long start, long end) throws IOException{
+		ByteBuffer bytes = ByteBuffer.allocate((int)(end-start));
+
+		while( bytes.hasRemaining() && channel.read(bytes, start+bytes.position()) > 0 ){
+			// keep reading until the whole range is in
+		}
+
+		TextDataReader reader = new TextDataReader(new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(bytes.array(), 0, bytes.position()), Charset.defaultCharset())));
+		SparseStorage.Builder builder = new SparseStorage.Builder();
+
+		if( hashingBits > 0 ){
+			reader.setHashingBits(hashingBits);
+		}
+
+		while( reader.hasNext() ){
+			builder.addRow(reader.next());
+		}
+
+		return new Chunk(builder.build(), reader.getFeatureMap());
+	}
+
+	/**
+	 * Combine the chunks, in order, translating each chunk's feature indices into
+	 * the indices for the whole file.
+	 *
+	 * @param chunks
+	 * @return the storage for the whole file
+	 */
+	private SparseStorage merge(List<Chunk> chunks){
+		featureMap = new HashMap<Integer, String>();
+
+		if( chunks.size() == 1 ){
+			featureMap.putAll(chunks.get(0).featureMap);
+			return chunks.get(0).rows;
+		}
+
+		if( hashingBits > 0 ){
+			return concatenate(chunks);
+		}
+
+		HashMap<String, Integer> wordToFeature = new HashMap<String, Integer>();
+		SparseStorage.Builder builder = new SparseStorage.Builder();
+		int[] indices = new int[16];
+		double[] values = new double[16];
+		long[] sortKeys = new long[16];
+
+		for( Chunk chunk: chunks ){
+			// a chunk numbers its words in order of first occurrence, so walking them in
+			// index order hands out new global indices in the same order a serial read would
+			int numWords = chunk.featureMap.size();
+			int[] toGlobal = new int[numWords];
+
+			for( int local = 0; local < numWords; local++ ){
+				String word = chunk.featureMap.get(local);
+				Integer global = wordToFeature.get(word);
+
+				if( global == null ){
+					global = wordToFeature.size();
+					wordToFeature.put(word, global);
+					featureMap.put(global, word);
+				}
+
+				toGlobal[local] = global;
+			}
+
+			SparseStorage rows = chunk.rows;
+			int[] rowPtr = rows.getRowPtr();
+			int[] colIdx = rows.getColIdx();
+			double[] rowValues = rows.getValues();
+			double[] labels = rows.getLabelArray();
+
+			for( int row = 0; row < rows.getNumRows(); row++ ){
+				int start = rowPtr[row];
+				int count = rowPtr[row+1]-start;
+
+				if( count > indices.length ){
+					indices = new int[count*2];
+					values = new double[count*2];
+					sortKeys = new long[count*2];
+				}
+
+				// re-sort the row by global index, carrying the position along in the low bits
+				for( int i = 0; i < count; i++ ){
+					sortKeys[i] = ((long)toGlobal[colIdx[start+i]] << 32) | i;
+				}
+
+				Arrays.sort(sortKeys, 0, count);
+
+				for( int i = 0; i < count; i++ ){
+					indices[i] = (int)(sortKeys[i] >>> 32);
+					values[i] = rowValues[start+(int)sortKeys[i]];
+				}
+
+				builder.addRow(indices, values, count, labels[row]);
+			}
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * Combine chunks whose feature indices already agree (i.e. hashed).
+	 *
+	 * @param chunks
+	 * @return the storage for the whole file
+	 */
+	private SparseStorage concatenate(List<Chunk> chunks){
+		SparseStorage.Builder builder = new SparseStorage.Builder();
+		int[] indices = new int[16];
+		double[] values = new double[16];
+
+		for( Chunk chunk: chunks ){
+			featureMap.putAll(chunk.featureMap);
+
+			SparseStorage rows = chunk.rows;
+			int[] rowPtr = rows.getRowPtr();
+			double[] labels = rows.getLabelArray();
+
+			for( int row = 0; row < rows.getNumRows(); row++ ){
+				int start = rowPtr[row];
+				int count = rowPtr[row+1]-start;
+
+				if( count > indices.length ){
+					indices = new int[count*2];
+					values = new double[count*2];
+				}
+
+				System.arraycopy(rows.getColIdx(), start, indices, 0, count);
+				System.arraycopy(rows.getValues(), start, values, 0, count);
+				builder.addRow(indices, values, count, labels[row]);
+			}
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * The examples from one range of the file along with that range's feature mapping.
+	 */
+	private static class Chunk {
+		final SparseStorage rows;
+		final HashMap<Integer, String> featureMap;
+
+		Chunk(SparseStorage rows, HashMap<Integer, String> featureMap){
+			this.rows = rows;
+			this.featureMap = featureMap;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package ml.data;
+
+import java.util.Arrays;
+
+/**
+ * A table from words to ids (0, 1, 2, ... in the order the words were added) that is
+ * looked up directly from a range of a char array, so no String has to be created to
+ * find a word that is already in the table.
+ *
+ * The characters of all the words are kept back to back in one array and the table
+ * itself is open addressing over a single int array, with each slot's id and hash next
+ * to each other so a probe touches one cache line.
+ */
+class WordTable {
+	private int[] slots = new int[2*1024];  // per slot: word id + 1 (0 if empty), then the word's hash
+	private int numSlots = 1024;
+
+	private char[] chars = new char[8192];  // the characters of every word, back to back
+	private int numChars = 0;
+	private int[] wordStarts = new int[256];  // where word i's characters start; word i ends at wordStarts[i+1]
+	private int numWords = 0;
+
+	/**
+	 * Find a word, adding it with the next id if it isn't in the table yet.
+	 *
+	 * @param word array holding the word
+	 * @param start where the word starts in word
+	 * @param length the number of characters in the word
+	 * @param hash hash of the word (e.g. TextDataReader.hashWord)
+	 * @return the id of the word
+	 */
+	int add(char[] word, int start, int length, int hash){
+		int mask = numSlots-1;
+		int slot = hash & mask;
+
+		for( ; slots[2*slot] != 0; slot = (slot+1) & mask ){
+			if( slots[2*slot+1] == hash && matches(slots[2*slot]-1, word, start, length) ){
+				return slots[2*slot]-1;
+			}
+		}
+
+		// copy the characters in
+		if( numChars + length > chars.length ){
+			chars = Arrays.copyOf(chars, Math.max(chars.length*2, numChars+length));
+		}
+
+		System.arraycopy(word, start, chars, numChars, length);
+		numChars += length;
+
+		if( numWords+2 > wordStarts.length ){
+			wordStarts = Arrays.copyOf(wordStarts, wordStarts.length*2);
+		}
+
+		int id = numWords++;
+		wordStarts[numWords] = numChars;
+		slots[2*slot] = id+1;
+		slots[2*slot+1] = hash;
+
+		// keep the table at most half full
+		if( numWords*2 > numSlots ){
+			rehash();
+		}
+
+		return id;
+	}
+
+	/**
+	 * @return the number of words in the table
+	 */
+	int size(){
+		return numWords;
+	}
+
+	/**
+	 * @param id
+	 * @return the word with that id
+	 */
+	String getWord(int id){
+		return new String(chars, wordStarts[id], wordStarts[id+1]-wordStarts[id]);
+	}
+
+	private boolean matches(int id, char[] word, int start, int length){
+		int wordStart = wordStarts[id];
+
+		if( wordStarts[id+1]-wordStart != length ){
+			return false;
+		}
+
+		for( int i = 0; i < length; i++ ){
+			if( chars[wordStart+i] != word[start+i] ){
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void rehash(){
+		int[] oldSlots = slots;
+		numSlots *= 2;
+		slots = new int[2*numSlots];
+		int mask = numSlots-1;
+
+		for( int i = 0; i < oldSlots.length; i += 2 ){
+			if( oldSlots[i] != 0 ){
+				int slot = oldSlots[i+1] & mask;
+
+				while( slots[2*slot] != 0 ){
+					slot = (slot+1) & mask;
+				}
+
+				slots[2*slot] = oldSlots[i];
+				slots[2*slot+1] = oldSlots[i+1];
+			}
+		}
+	}
+}